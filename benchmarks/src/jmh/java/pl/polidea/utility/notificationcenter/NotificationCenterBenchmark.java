@@ -0,0 +1,105 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import android.os.Looper;
+
+/**
+ * Single-threaded emit and dispatch throughput, with fan-out to 1/10/100
+ * listeners.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationCenterBenchmark {
+
+    /**
+     * Notification sent.
+     */
+    public static class SampleNotification implements Notification {
+        final int value;
+
+        SampleNotification(final int value) {
+            this.value = value;
+        }
+    }
+
+    private static final int BATCH = 16;
+
+    @Param({ "1", "10", "100" })
+    public int listenerCount;
+
+    private final SampleNotification notification = new SampleNotification(1);
+    private NotificationCenter direct;
+    private NotificationCenter handler;
+    private NotificationCenter batching;
+    private Looper looper;
+    private long received;
+
+    @Setup
+    public void setUp() {
+        looper = Looper.getMainLooper();
+        direct = new NotificationCenter(DirectDispatcher.INSTANCE);
+        handler = new NotificationCenter(new HandlerDispatcher(looper));
+        batching = new NotificationCenter(new HandlerDispatcher(looper));
+        batching.enableBatching(BATCH);
+        for (int i = 0; i < listenerCount; i++) {
+            final NotificationListener<SampleNotification> listener = new NotificationListener<SampleNotification>() {
+                @Override
+                public void notificationReceived(final SampleNotification n) {
+                    received += n.value;
+                }
+            };
+            direct.registerListener(SampleNotification.class, listener);
+            handler.registerListener(SampleNotification.class, listener);
+            batching.registerListener(SampleNotification.class, listener);
+        }
+    }
+
+    @Benchmark
+    public long emitDirect() {
+        direct.emitNotification(SampleNotification.class, notification);
+        return received;
+    }
+
+    @Benchmark
+    public long emitThroughHandler() {
+        handler.emitNotification(SampleNotification.class, notification);
+        looper.runPending();
+        return received;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long emitBatchThroughHandler() {
+        for (int i = 0; i < BATCH; i++) {
+            batching.emitNotification(SampleNotification.class, notification);
+        }
+        looper.runPending();
+        return received;
+    }
+
+    @Benchmark
+    public int emitWithoutListeners() {
+        direct.emitNotification(Notification.class, notification);
+        return listenerCount;
+    }
+}
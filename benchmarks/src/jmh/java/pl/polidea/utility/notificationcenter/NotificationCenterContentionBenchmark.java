@@ -0,0 +1,86 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+
+/**
+ * Multi-threaded emitting and register/unregister churn under contention.
+ * Listeners are called directly on emitting threads.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationCenterContentionBenchmark {
+
+    /**
+     * Notification sent.
+     */
+    public static class SampleNotification implements Notification {
+    }
+
+    private static final int LISTENERS = 10;
+
+    private final SampleNotification notification = new SampleNotification();
+    private final AtomicLong received = new AtomicLong();
+    private final NotificationListener<SampleNotification> listener = new NotificationListener<SampleNotification>() {
+        @Override
+        public void notificationReceived(final SampleNotification n) {
+            received.lazySet(received.get() + 1);
+        }
+    };
+    private NotificationCenter center;
+
+    @Setup
+    public void setUp() {
+        center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        for (int i = 0; i < LISTENERS; i++) {
+            center.registerListener(SampleNotification.class, new NotificationListener<SampleNotification>() {
+                @Override
+                public void notificationReceived(final SampleNotification n) {
+                    received.lazySet(received.get() + 1);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void emitFourThreads() {
+        center.emitNotification(SampleNotification.class, notification);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void churnEmit() {
+        center.emitNotification(SampleNotification.class, notification);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void churnRegisterUnregister() {
+        center.registerListener(SampleNotification.class, listener);
+        center.unregisterListener(SampleNotification.class, listener);
+    }
+}
@@ -0,0 +1,100 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.sensors.LocationCenter.LocationChangedNotification;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationUpdateNotification;
+import pl.polidea.utility.sensors.SensorNotificationCodecs;
+import android.location.Location;
+
+/**
+ * Cost of passing notification between two notification centers through
+ * mapped ring file - encode, write, read and decode. Both ends live in the
+ * benchmark process, which measures the same work as two processes minus the
+ * cache line transfers between cores.
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationBridgeBenchmark {
+    private File file;
+    private MappedRingTransport writer;
+    private MappedRingTransport reader;
+    private NotificationCenter source;
+    private NotificationBridge receiving;
+    private Location location;
+    private float received;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("bridge", ".ring");
+        file.delete();
+        writer = new MappedRingTransport(file, 64 * 1024);
+        reader = new MappedRingTransport(file, 64 * 1024);
+        source = new NotificationCenter(DirectDispatcher.INSTANCE);
+        final NotificationCenter target = new NotificationCenter(DirectDispatcher.INSTANCE);
+        SensorNotificationCodecs.forwardAll(new NotificationBridge(source, writer));
+        receiving = new NotificationBridge(target, reader);
+        SensorNotificationCodecs.acceptAll(receiving);
+        target.registerListener(OrientationUpdateNotification.class,
+                new NotificationListener<OrientationUpdateNotification>() {
+                    @Override
+                    public void notificationReceived(final OrientationUpdateNotification notification) {
+                        received += notification.getAzimuth();
+                    }
+                });
+        target.registerListener(LocationChangedNotification.class,
+                new NotificationListener<LocationChangedNotification>() {
+                    @Override
+                    public void notificationReceived(final LocationChangedNotification notification) {
+                        received += notification.getLocation().getAccuracy();
+                    }
+                });
+        location = new Location("gps");
+        location.setLatitude(52.2297);
+        location.setLongitude(21.0122);
+        location.setAccuracy(8f);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+        reader.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public float orientationUpdate() {
+        source.emitNotification(OrientationUpdateNotification.class, new OrientationUpdateNotification(1f, 2f, 3f));
+        receiving.poll(1);
+        return received;
+    }
+
+    @Benchmark
+    public float locationChanged() {
+        source.emitNotification(LocationChangedNotification.class, new LocationChangedNotification(location));
+        receiving.poll(1);
+        return received;
+    }
+}
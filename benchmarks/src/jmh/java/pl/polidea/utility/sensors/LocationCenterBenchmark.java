@@ -0,0 +1,116 @@
+package pl.polidea.utility.sensors;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.sensors.LocationCenter.LocationChangedNotification;
+import pl.polidea.utility.sensors.estimator.BestFixEstimator;
+import pl.polidea.utility.sensors.estimator.LocationEstimator;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+
+/**
+ * Location estimation cost - GPS and network fixes fed alternately to the
+ * location center.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LocationCenterBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final Location[] gpsFixes = new Location[SAMPLES];
+    private final Location[] netFixes = new Location[SAMPLES];
+    private LocationListener gpsListener;
+    private LocationListener netListener;
+    private LocationListener bestFixGpsListener;
+    private LocationListener bestFixNetListener;
+    private int index;
+    private long time;
+    private double received;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            gpsFixes[i] = fix(LocationManager.GPS_PROVIDER, random, 5f + random.nextFloat() * 20f);
+            netFixes[i] = fix(LocationManager.NETWORK_PROVIDER, random, 30f + random.nextFloat() * 200f);
+        }
+        final LocationManager locationManager = new LocationManager();
+        startCollecting(locationManager, null);
+        gpsListener = locationManager.getListener(LocationManager.GPS_PROVIDER);
+        netListener = locationManager.getListener(LocationManager.NETWORK_PROVIDER);
+        final LocationManager bestFixManager = new LocationManager();
+        startCollecting(bestFixManager, new BestFixEstimator());
+        bestFixGpsListener = bestFixManager.getListener(LocationManager.GPS_PROVIDER);
+        bestFixNetListener = bestFixManager.getListener(LocationManager.NETWORK_PROVIDER);
+    }
+
+    private void startCollecting(final LocationManager locationManager, final LocationEstimator estimator) {
+        final Context context = new Context();
+        context.putSystemService(Context.LOCATION_SERVICE, locationManager);
+        final NotificationCenter notificationCenter = new NotificationCenter(DirectDispatcher.INSTANCE);
+        notificationCenter.registerListener(LocationChangedNotification.class,
+                new NotificationListener<LocationChangedNotification>() {
+                    @Override
+                    public void notificationReceived(final LocationChangedNotification notification) {
+                        received += notification.getLocation().getLatitude();
+                    }
+                });
+        final LocationCenter locationCenter = new LocationCenter(context, notificationCenter);
+        if (estimator != null) {
+            locationCenter.setEstimator(estimator);
+        }
+        locationCenter.startCollecting(LocationCenter.SOURCETYPE_ANY, 0, 0);
+    }
+
+    private static Location fix(final String provider, final Random random, final float accuracy) {
+        final Location location = new Location(provider);
+        location.setLatitude(52.2297 + random.nextGaussian() * 0.001);
+        location.setLongitude(21.0122 + random.nextGaussian() * 0.001);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    @Benchmark
+    public double pushLocation() {
+        return push(gpsListener, netListener);
+    }
+
+    @Benchmark
+    public double pushLocationBestFix() {
+        return push(bestFixGpsListener, bestFixNetListener);
+    }
+
+    private double push(final LocationListener gpsListener, final LocationListener netListener) {
+        index = (index + 1) & (SAMPLES - 1);
+        time += 500;
+        final Location gps = gpsFixes[index];
+        gps.setTime(time);
+        gpsListener.onLocationChanged(gps);
+        final Location net = netFixes[index];
+        net.setTime(time + 250);
+        netListener.onLocationChanged(net);
+        return received;
+    }
+}
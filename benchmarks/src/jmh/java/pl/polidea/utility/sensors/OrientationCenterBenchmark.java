@@ -0,0 +1,200 @@
+package pl.polidea.utility.sensors;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationSink;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationSnapshot;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationUpdateNotification;
+import pl.polidea.utility.sensors.OrientationCenter.ValueProcessor;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Looper;
+
+/**
+ * Orientation filtering cost per sample - the filter alone and the complete
+ * sensor pipeline (rotation matrix or quaternion, filtering, emitting).
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrientationCenterBenchmark {
+    private static final int SAMPLES = 1024;
+    private static final int BURST = 32;
+
+    private final float[] angles = new float[SAMPLES];
+    private final SensorEvent[] accelEvents = new SensorEvent[SAMPLES];
+    private final SensorEvent[] magEvents = new SensorEvent[SAMPLES];
+    private final SensorEvent[] rotationEvents = new SensorEvent[SAMPLES];
+    private final Quaternion quaternion = new Quaternion();
+    private final Quaternion remap = new Quaternion(0.5f, -0.5f, 0.5f, -0.5f);
+    private final float[] orientation = new float[3];
+    private final OrientationSnapshot snapshot = new OrientationSnapshot();
+    private OrientationCenter rotationCenter;
+    private final ValueProcessor processor = new ValueProcessor(0.6f, 0.25f);
+    private SensorEventListener sensorListener;
+    private SensorEventListener rotationListener;
+    private SensorEventListener sinkListener;
+    private SensorEventListener batchingListener;
+    private int index;
+    private float received;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final SensorManager sensorManager = new SensorManager();
+        final Sensor accel = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        final Sensor mag = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        final Sensor rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        for (int i = 0; i < SAMPLES; i++) {
+            angles[i] = (float) ((random.nextDouble() * 2 - 1) * Math.PI);
+            accelEvents[i] = new SensorEvent(accel, 3);
+            accelEvents[i].values[0] = (float) random.nextGaussian() * 0.3f;
+            accelEvents[i].values[1] = (float) random.nextGaussian() * 0.3f;
+            accelEvents[i].values[2] = 9.81f + (float) random.nextGaussian() * 0.3f;
+            magEvents[i] = new SensorEvent(mag, 3);
+            magEvents[i].values[0] = 20f + (float) random.nextGaussian();
+            magEvents[i].values[1] = (float) random.nextGaussian();
+            magEvents[i].values[2] = -40f + (float) random.nextGaussian();
+            final Quaternion sample = new Quaternion(1f, (float) random.nextGaussian() * 0.1f,
+                    (float) random.nextGaussian() * 0.1f, (float) random.nextGaussian() * 0.1f).normalize();
+            rotationEvents[i] = new SensorEvent(rotationVector, 4);
+            rotationEvents[i].values[0] = sample.getX();
+            rotationEvents[i].values[1] = sample.getY();
+            rotationEvents[i].values[2] = sample.getZ();
+            rotationEvents[i].values[3] = sample.getW();
+        }
+        startCenter(sensorManager, OrientationCenter.ENGINE_ACCELEROMETER_MAGNETIC);
+        final SensorManager rotationSensorManager = new SensorManager();
+        rotationCenter = startCenter(rotationSensorManager, OrientationCenter.ENGINE_ROTATION_VECTOR);
+        rotationListener = rotationSensorManager.getListener();
+        rotationListener.onSensorChanged(rotationEvents[0]);
+        final SensorManager sinkSensorManager = new SensorManager();
+        final Context context = new Context();
+        context.putSystemService(Context.SENSOR_SERVICE, sinkSensorManager);
+        final OrientationCenter sinkCenter = new OrientationCenter(context, new NotificationCenter(
+                DirectDispatcher.INSTANCE));
+        sinkCenter.setEngine(OrientationCenter.ENGINE_ROTATION_VECTOR);
+        sinkCenter.addOrientationSink(new OrientationSink() {
+            @Override
+            public void orientationChanged(final float azimuth, final float pitch, final float roll,
+                    final long timestampNanos) {
+                received += azimuth;
+            }
+        });
+        sinkCenter.startCollecting();
+        sinkListener = sinkSensorManager.getListener();
+        final SensorManager batchingSensorManager = new SensorManager();
+        batchingSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR).setFifoMaxEventCount(300);
+        final Context batchingContext = new Context();
+        batchingContext.putSystemService(Context.SENSOR_SERVICE, batchingSensorManager);
+        final OrientationCenter batchingCenter = new OrientationCenter(batchingContext, new NotificationCenter(
+                DirectDispatcher.INSTANCE));
+        batchingCenter.setEngine(OrientationCenter.ENGINE_ROTATION_VECTOR);
+        batchingCenter.addOrientationSink(new OrientationSink() {
+            @Override
+            public void orientationChanged(final float azimuth, final float pitch, final float roll,
+                    final long timestampNanos) {
+                received += azimuth;
+            }
+        });
+        batchingCenter.openSession(SensorManager.SENSOR_DELAY_GAME, 1000);
+        batchingListener = batchingSensorManager.getListener();
+        sensorListener = sensorManager.getListener();
+    }
+
+    private OrientationCenter startCenter(final SensorManager sensorManager, final int engine) {
+        final Context context = new Context();
+        context.putSystemService(Context.SENSOR_SERVICE, sensorManager);
+        final NotificationCenter notificationCenter = new NotificationCenter(DirectDispatcher.INSTANCE);
+        notificationCenter.registerListener(OrientationUpdateNotification.class,
+                new NotificationListener<OrientationUpdateNotification>() {
+                    @Override
+                    public void notificationReceived(final OrientationUpdateNotification notification) {
+                        received += notification.getAzimuth();
+                    }
+                });
+        final OrientationCenter orientationCenter = new OrientationCenter(context, notificationCenter);
+        orientationCenter.setEngine(engine);
+        orientationCenter.startCollecting();
+        return orientationCenter;
+    }
+
+    @Benchmark
+    public float valueProcessorPush() {
+        index = (index + 1) & (SAMPLES - 1);
+        processor.push(angles[index]);
+        return processor.get();
+    }
+
+    @Benchmark
+    public float sensorPipeline() {
+        index = (index + 1) & (SAMPLES - 1);
+        sensorListener.onSensorChanged(accelEvents[index]);
+        sensorListener.onSensorChanged(magEvents[index]);
+        return received;
+    }
+
+    @Benchmark
+    public float rotationVectorPipeline() {
+        index = (index + 1) & (SAMPLES - 1);
+        rotationListener.onSensorChanged(rotationEvents[index]);
+        return received;
+    }
+
+    @Benchmark
+    public float rotationVectorSink() {
+        index = (index + 1) & (SAMPLES - 1);
+        sinkListener.onSensorChanged(rotationEvents[index]);
+        return received;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public float rotationVectorBurst() {
+        for (int i = 0; i < BURST; i++) {
+            index = (index + 1) & (SAMPLES - 1);
+            batchingListener.onSensorChanged(rotationEvents[index]);
+        }
+        // end of the burst
+        Looper.getMainLooper().runPending();
+        return received;
+    }
+
+    @Benchmark
+    public float readOrientation() {
+        rotationCenter.readOrientation(snapshot);
+        return snapshot.getAzimuth();
+    }
+
+    @Benchmark
+    public float quaternionOrientation() {
+        index = (index + 1) & (SAMPLES - 1);
+        quaternion.setFromRotationVector(rotationEvents[index].values);
+        quaternion.multiply(quaternion, remap);
+        quaternion.getOrientation(orientation);
+        return orientation[0];
+    }
+}
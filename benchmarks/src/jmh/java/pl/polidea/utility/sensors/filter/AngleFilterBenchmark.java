@@ -0,0 +1,86 @@
+package pl.polidea.utility.sensors.filter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of single orientation filter stage per sample, and of the cosine cap
+ * filter run over recorded batch.
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AngleFilterBenchmark {
+    private static final int SAMPLES = 1024;
+    private static final long PERIOD = 20000000L;
+
+    private final float[] angles = new float[SAMPLES];
+    private final float[] batch = new float[SAMPLES];
+    private final CosineCapFilter cosineCap = new CosineCapFilter(0.6f, 0.25f);
+    private final LowPassFilter lowPass = new LowPassFilter(0.2f);
+    private final OneEuroFilter oneEuro = new OneEuroFilter(1f, 0.5f, 1f);
+    private final KalmanFilter kalman = new KalmanFilter(0.0001f, 0.01f);
+    private int index;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        float angle = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            angle = Angles.wrap(angle + (float) random.nextGaussian() * 0.05f);
+            angles[i] = angle;
+        }
+    }
+
+    private float next() {
+        index = (index + 1) & (SAMPLES - 1);
+        timestamp += PERIOD;
+        return angles[index];
+    }
+
+    @Benchmark
+    public float cosineCap() {
+        return cosineCap.filter(next(), timestamp);
+    }
+
+    @Benchmark
+    public float lowPass() {
+        return lowPass.filter(next(), timestamp);
+    }
+
+    @Benchmark
+    public float oneEuro() {
+        return oneEuro.filter(next(), timestamp);
+    }
+
+    @Benchmark
+    public float kalman() {
+        return kalman.filter(next(), timestamp);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public float cosineCapBatch() {
+        System.arraycopy(angles, 0, batch, 0, SAMPLES);
+        cosineCap.filter(batch, 0, SAMPLES, timestamp, PERIOD);
+        timestamp += SAMPLES * PERIOD;
+        return batch[SAMPLES - 1];
+    }
+}
@@ -0,0 +1,129 @@
+package pl.polidea.utility.sensors.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.sensors.LocationCenter;
+import pl.polidea.utility.sensors.OrientationCenter;
+import pl.polidea.utility.sensors.trace.SensorTraceReplay.RecordHandler;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationManager;
+
+/**
+ * Replay of recorded trace - decoding alone and decoding with processing by
+ * the centers. The trace is synthetic: accelerometer and magnetometer at game
+ * rate with noise and GPS fix every second.
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorTraceBenchmark {
+    private static final int SAMPLES = 10000;
+    private static final int RECORDS = SAMPLES + SAMPLES / 50;
+
+    private File file;
+    private SensorTraceReplay replay;
+    private OrientationCenter orientationCenter;
+    private LocationCenter locationCenter;
+    private float received;
+
+    private final RecordHandler decodeOnly = new RecordHandler() {
+        @Override
+        public void sampleRead(final int sensorType, final float[] values, final long timestampNanos) {
+            received += values[0];
+        }
+
+        @Override
+        public void locationRead(final int type, final Location location) {
+            received += location.getAccuracy();
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("sensors", ".trace");
+        file.delete();
+        final SensorTraceWriter writer = new SensorTraceWriter(file);
+        final Random random = new Random(42);
+        final float[] accel = new float[3];
+        final float[] mag = new float[3];
+        double latitude = 52.2297;
+        double longitude = 21.0122;
+        for (int i = 0; i < SAMPLES; i++) {
+            final long timestamp = i * 20000000L;
+            if (i % 2 == 0) {
+                accel[0] = (float) random.nextGaussian() * 0.3f;
+                accel[1] = (float) random.nextGaussian() * 0.3f;
+                accel[2] = 9.81f + (float) random.nextGaussian() * 0.3f;
+                writer.sampleReceived(Sensor.TYPE_ACCELEROMETER, accel, timestamp);
+            } else {
+                mag[0] = 20f + (float) random.nextGaussian();
+                mag[1] = (float) random.nextGaussian();
+                mag[2] = -40f + (float) random.nextGaussian();
+                writer.sampleReceived(Sensor.TYPE_MAGNETIC_FIELD, mag, timestamp);
+            }
+            if (i % 50 == 0) {
+                latitude += random.nextGaussian() * 1e-5;
+                longitude += random.nextGaussian() * 1e-5;
+                final Location location = new Location(LocationManager.GPS_PROVIDER);
+                location.setTime(1300000000000L + i * 20L);
+                location.setLatitude(latitude);
+                location.setLongitude(longitude);
+                location.setAccuracy(5f + random.nextInt(20));
+                writer.fixReceived(LocationCenter.SOURCETYPE_GPS, location);
+            }
+        }
+        writer.close();
+        replay = new SensorTraceReplay(file);
+        final Context context = new Context();
+        context.putSystemService(Context.SENSOR_SERVICE, new SensorManager());
+        context.putSystemService(Context.LOCATION_SERVICE, new LocationManager());
+        final NotificationCenter notificationCenter = new NotificationCenter(DirectDispatcher.INSTANCE);
+        orientationCenter = new OrientationCenter(context, notificationCenter);
+        locationCenter = new LocationCenter(context, notificationCenter);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        replay.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public float decode() throws InterruptedException {
+        replay.replay(decodeOnly, false);
+        return received;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public float replayThroughCenters() throws InterruptedException {
+        replay.replay(orientationCenter, locationCenter, false);
+        return orientationCenter.getAzimuth();
+    }
+}
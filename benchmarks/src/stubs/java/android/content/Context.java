@@ -0,0 +1,25 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context serving system services registered by the benchmark.
+ */
+public class Context {
+    public static final String LOCATION_SERVICE = "location";
+    public static final String SENSOR_SERVICE = "sensor";
+
+    private final Map<String, Object> services = new HashMap<String, Object>();
+
+    public Object getSystemService(final String name) {
+        return services.get(name);
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public void putSystemService(final String name, final Object service) {
+        services.put(name, service);
+    }
+}
@@ -0,0 +1,41 @@
+package android.hardware;
+
+public final class Sensor {
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_ORIENTATION = 3;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_GRAVITY = 9;
+    public static final int TYPE_LINEAR_ACCELERATION = 10;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    public static final int TYPE_GAME_ROTATION_VECTOR = 15;
+
+    private final int type;
+    private int fifoMaxEventCount;
+
+    /**
+     * Not part of Android API (sensors are created by the system there).
+     */
+    public Sensor(final int type) {
+        this.type = type;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getName() {
+        return "stub sensor " + type;
+    }
+
+    public int getFifoMaxEventCount() {
+        return fifoMaxEventCount;
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public void setFifoMaxEventCount(final int fifoMaxEventCount) {
+        this.fifoMaxEventCount = fifoMaxEventCount;
+    }
+}
@@ -0,0 +1,16 @@
+package android.hardware;
+
+public class SensorEvent {
+    public final float[] values;
+    public Sensor sensor;
+    public int accuracy;
+    public long timestamp;
+
+    /**
+     * Not part of Android API (events are created by the system there).
+     */
+    public SensorEvent(final Sensor sensor, final int valueSize) {
+        this.sensor = sensor;
+        this.values = new float[valueSize];
+    }
+}
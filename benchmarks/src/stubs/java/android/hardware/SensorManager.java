@@ -0,0 +1,280 @@
+package android.hardware;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+
+/**
+ * Sensor manager remembering the listeners registered, so that benchmarks can
+ * feed events to them directly. The static math is the same algorithm as in
+ * the Android framework, so that its cost is measured realistically.
+ */
+public class SensorManager {
+    public static final int SENSOR_DELAY_FASTEST = 0;
+    public static final int SENSOR_DELAY_GAME = 1;
+    public static final int SENSOR_DELAY_UI = 2;
+    public static final int SENSOR_DELAY_NORMAL = 3;
+
+    public static final int SENSOR_STATUS_UNRELIABLE = 0;
+    public static final int SENSOR_STATUS_ACCURACY_LOW = 1;
+    public static final int SENSOR_STATUS_ACCURACY_MEDIUM = 2;
+    public static final int SENSOR_STATUS_ACCURACY_HIGH = 3;
+
+    public static final int AXIS_X = 1;
+    public static final int AXIS_Y = 2;
+    public static final int AXIS_Z = 3;
+    public static final int AXIS_MINUS_X = AXIS_X | 0x80;
+    public static final int AXIS_MINUS_Y = AXIS_Y | 0x80;
+    public static final int AXIS_MINUS_Z = AXIS_Z | 0x80;
+
+    private final Map<Integer, Sensor> sensors = new ConcurrentHashMap<Integer, Sensor>();
+    private final CopyOnWriteArrayList<SensorEventListener> listeners = new CopyOnWriteArrayList<SensorEventListener>();
+    private int registerCount;
+    private int reportLatencyUs;
+    private Handler handler;
+
+    public SensorManager() {
+        sensors.put(Sensor.TYPE_ACCELEROMETER, new Sensor(Sensor.TYPE_ACCELEROMETER));
+        sensors.put(Sensor.TYPE_MAGNETIC_FIELD, new Sensor(Sensor.TYPE_MAGNETIC_FIELD));
+        sensors.put(Sensor.TYPE_ROTATION_VECTOR, new Sensor(Sensor.TYPE_ROTATION_VECTOR));
+        sensors.put(Sensor.TYPE_GAME_ROTATION_VECTOR, new Sensor(Sensor.TYPE_GAME_ROTATION_VECTOR));
+    }
+
+    public Sensor getDefaultSensor(final int type) {
+        return sensors.get(type);
+    }
+
+    public boolean registerListener(final SensorEventListener listener, final Sensor sensor, final int rate) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        registerCount++;
+        reportLatencyUs = 0;
+        return true;
+    }
+
+    public boolean registerListener(final SensorEventListener listener, final Sensor sensor, final int rate,
+            final Handler handler) {
+        this.handler = handler;
+        return registerListener(listener, sensor, rate);
+    }
+
+    public boolean registerListener(final SensorEventListener listener, final Sensor sensor,
+            final int samplingPeriodUs, final int maxReportLatencyUs) {
+        registerListener(listener, sensor, samplingPeriodUs);
+        reportLatencyUs = maxReportLatencyUs;
+        return true;
+    }
+
+    public boolean registerListener(final SensorEventListener listener, final Sensor sensor,
+            final int samplingPeriodUs, final int maxReportLatencyUs, final Handler handler) {
+        this.handler = handler;
+        return registerListener(listener, sensor, samplingPeriodUs, maxReportLatencyUs);
+    }
+
+    public void unregisterListener(final SensorEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void unregisterListener(final SensorEventListener listener, final Sensor sensor) {
+        listeners.remove(listener);
+    }
+
+    public boolean flush(final SensorEventListener listener) {
+        return true;
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public SensorEventListener getListener() {
+        return listeners.isEmpty() ? null : listeners.get(0);
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public int getReportLatencyUs() {
+        return reportLatencyUs;
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public static boolean getRotationMatrix(final float[] R, final float[] I, final float[] gravity,
+            final float[] geomagnetic) {
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+        final float normsqA = Ax * Ax + Ay * Ay + Az * Az;
+        final float g = 9.81f;
+        final float freeFallGravitySquared = 0.01f * g * g;
+        if (normsqA < freeFallGravitySquared) {
+            return false;
+        }
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+        if (normH < 0.1f) {
+            return false;
+        }
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+        if (R != null) {
+            if (R.length == 9) {
+                R[0] = Hx;
+                R[1] = Hy;
+                R[2] = Hz;
+                R[3] = Mx;
+                R[4] = My;
+                R[5] = Mz;
+                R[6] = Ax;
+                R[7] = Ay;
+                R[8] = Az;
+            } else if (R.length == 16) {
+                R[0] = Hx;
+                R[1] = Hy;
+                R[2] = Hz;
+                R[3] = 0;
+                R[4] = Mx;
+                R[5] = My;
+                R[6] = Mz;
+                R[7] = 0;
+                R[8] = Ax;
+                R[9] = Ay;
+                R[10] = Az;
+                R[11] = 0;
+                R[12] = 0;
+                R[13] = 0;
+                R[14] = 0;
+                R[15] = 1;
+            }
+        }
+        if (I != null) {
+            final float invE = 1.0f / (float) Math.sqrt(Ex * Ex + Ey * Ey + Ez * Ez);
+            final float c = (Ex * Mx + Ey * My + Ez * Mz) * invE;
+            final float s = (Ex * Ax + Ey * Ay + Ez * Az) * invE;
+            if (I.length == 9) {
+                I[0] = 1;
+                I[1] = 0;
+                I[2] = 0;
+                I[3] = 0;
+                I[4] = c;
+                I[5] = s;
+                I[6] = 0;
+                I[7] = -s;
+                I[8] = c;
+            } else if (I.length == 16) {
+                I[0] = 1;
+                I[1] = 0;
+                I[2] = 0;
+                I[4] = 0;
+                I[5] = c;
+                I[6] = s;
+                I[8] = 0;
+                I[9] = -s;
+                I[10] = c;
+                I[3] = 0;
+                I[7] = 0;
+                I[11] = 0;
+                I[12] = 0;
+                I[13] = 0;
+                I[14] = 0;
+                I[15] = 1;
+            }
+        }
+        return true;
+    }
+
+    public static boolean remapCoordinateSystem(final float[] inR, final int X, final int Y, final float[] outR) {
+        final int length = outR.length;
+        if (inR.length != length || inR == outR) {
+            return false;
+        }
+        if ((X & 0x7C) != 0 || (Y & 0x7C) != 0) {
+            return false;
+        }
+        if ((X & 0x3) == 0 || (Y & 0x3) == 0) {
+            return false;
+        }
+        if ((X & 0x3) == (Y & 0x3)) {
+            return false;
+        }
+        int Z = X ^ Y;
+        final int x = (X & 0x3) - 1;
+        final int y = (Y & 0x3) - 1;
+        final int z = (Z & 0x3) - 1;
+        final int axisY = (z + 1) % 3;
+        final int axisZ = (z + 2) % 3;
+        if (((x ^ axisY) | (y ^ axisZ)) != 0) {
+            Z ^= 0x80;
+        }
+        final boolean sx = X >= 0x80;
+        final boolean sy = Y >= 0x80;
+        final boolean sz = Z >= 0x80;
+        final int rowLength = length == 16 ? 4 : 3;
+        for (int j = 0; j < 3; j++) {
+            final int offset = j * rowLength;
+            for (int i = 0; i < 3; i++) {
+                if (x == i) {
+                    outR[offset + i] = sx ? -inR[offset + 0] : inR[offset + 0];
+                }
+                if (y == i) {
+                    outR[offset + i] = sy ? -inR[offset + 1] : inR[offset + 1];
+                }
+                if (z == i) {
+                    outR[offset + i] = sz ? -inR[offset + 2] : inR[offset + 2];
+                }
+            }
+        }
+        if (length == 16) {
+            outR[3] = 0;
+            outR[7] = 0;
+            outR[11] = 0;
+            outR[12] = 0;
+            outR[13] = 0;
+            outR[14] = 0;
+            outR[15] = 1;
+        }
+        return true;
+    }
+
+    public static float[] getOrientation(final float[] R, final float[] values) {
+        if (R.length == 9) {
+            values[0] = (float) Math.atan2(R[1], R[4]);
+            values[1] = (float) Math.asin(-R[7]);
+            values[2] = (float) Math.atan2(-R[6], R[8]);
+        } else {
+            values[0] = (float) Math.atan2(R[1], R[5]);
+            values[1] = (float) Math.asin(-R[9]);
+            values[2] = (float) Math.atan2(-R[8], R[10]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,157 @@
+package android.location;
+
+/**
+ * Plain data holder with the accessors used by the library.
+ */
+public class Location {
+    private static final double EARTH_RADIUS = 6371009.0;
+
+    private String provider;
+    private long time;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private float accuracy;
+    private float speed;
+    private float bearing;
+    private boolean hasAccuracy;
+    private boolean hasAltitude;
+    private boolean hasSpeed;
+    private boolean hasBearing;
+
+    public Location(final String provider) {
+        this.provider = provider;
+    }
+
+    public Location(final Location l) {
+        set(l);
+    }
+
+    public void set(final Location l) {
+        provider = l.provider;
+        time = l.time;
+        latitude = l.latitude;
+        longitude = l.longitude;
+        altitude = l.altitude;
+        accuracy = l.accuracy;
+        speed = l.speed;
+        bearing = l.bearing;
+        hasAccuracy = l.hasAccuracy;
+        hasAltitude = l.hasAltitude;
+        hasSpeed = l.hasSpeed;
+        hasBearing = l.hasBearing;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(final String provider) {
+        this.provider = provider;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(final long time) {
+        this.time = time;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(final double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(final double longitude) {
+        this.longitude = longitude;
+    }
+
+    public boolean hasAltitude() {
+        return hasAltitude;
+    }
+
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public void setAltitude(final double altitude) {
+        this.altitude = altitude;
+        hasAltitude = true;
+    }
+
+    public boolean hasAccuracy() {
+        return hasAccuracy;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public void setAccuracy(final float accuracy) {
+        this.accuracy = accuracy;
+        hasAccuracy = true;
+    }
+
+    public void removeAccuracy() {
+        accuracy = 0;
+        hasAccuracy = false;
+    }
+
+    public boolean hasSpeed() {
+        return hasSpeed;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(final float speed) {
+        this.speed = speed;
+        hasSpeed = true;
+    }
+
+    public boolean hasBearing() {
+        return hasBearing;
+    }
+
+    public float getBearing() {
+        return bearing;
+    }
+
+    public void setBearing(final float bearing) {
+        this.bearing = bearing;
+        hasBearing = true;
+    }
+
+    public float distanceTo(final Location dest) {
+        final float[] results = new float[1];
+        distanceBetween(latitude, longitude, dest.latitude, dest.longitude, results);
+        return results[0];
+    }
+
+    /**
+     * Haversine approximation (Android uses Vincenty, precision does not
+     * matter for benchmarks).
+     */
+    public static void distanceBetween(final double startLatitude, final double startLongitude,
+            final double endLatitude, final double endLongitude, final float[] results) {
+        final double dLat = Math.toRadians(endLatitude - startLatitude);
+        final double dLon = Math.toRadians(endLongitude - startLongitude);
+        final double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(startLatitude))
+                * Math.cos(Math.toRadians(endLatitude)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        results[0] = (float) (2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a)));
+    }
+
+    @Override
+    public String toString() {
+        return "Location[" + provider + " " + latitude + "," + longitude + " acc=" + accuracy + " t=" + time + "]";
+    }
+}
@@ -0,0 +1,78 @@
+package android.location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.os.Looper;
+
+/**
+ * Location manager remembering the listeners registered, so that benchmarks
+ * can feed locations to them directly.
+ */
+public class LocationManager {
+    public static final String GPS_PROVIDER = "gps";
+    public static final String NETWORK_PROVIDER = "network";
+
+    private final Map<String, LocationListener> listeners = new ConcurrentHashMap<String, LocationListener>();
+    private final List<String> enabled = new ArrayList<String>(Arrays.asList(GPS_PROVIDER, NETWORK_PROVIDER));
+    private int requestCount;
+
+    public List<String> getAllProviders() {
+        return Arrays.asList(GPS_PROVIDER, NETWORK_PROVIDER);
+    }
+
+    public List<String> getProviders(final boolean enabledOnly) {
+        return enabledOnly ? new ArrayList<String>(enabled) : getAllProviders();
+    }
+
+    public boolean isProviderEnabled(final String provider) {
+        return enabled.contains(provider);
+    }
+
+    public void requestLocationUpdates(final String provider, final long minTime, final float minDistance,
+            final LocationListener listener) {
+        listeners.put(provider, listener);
+        requestCount++;
+    }
+
+    public void requestLocationUpdates(final String provider, final long minTime, final float minDistance,
+            final LocationListener listener, final Looper looper) {
+        requestLocationUpdates(provider, minTime, minDistance, listener);
+    }
+
+    public void removeUpdates(final LocationListener listener) {
+        listeners.values().remove(listener);
+    }
+
+    public Location getLastKnownLocation(final String provider) {
+        return null;
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public LocationListener getListener(final String provider) {
+        return listeners.get(provider);
+    }
+
+    /**
+     * Not part of Android API - enables or disables provider without calling
+     * the listeners.
+     */
+    public void setProviderEnabled(final String provider, final boolean providerEnabled) {
+        enabled.remove(provider);
+        if (providerEnabled) {
+            enabled.add(provider);
+        }
+    }
+
+    /**
+     * Not part of Android API.
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+}
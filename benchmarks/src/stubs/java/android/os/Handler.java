@@ -0,0 +1,61 @@
+package android.os;
+
+/**
+ * Handler posting to the stub {@link Looper}.
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.myLooper() == null ? Looper.getMainLooper() : Looper.myLooper());
+    }
+
+    public Handler(final Looper looper) {
+        this.looper = looper;
+    }
+
+    public void handleMessage(final Message msg) {
+        // override
+    }
+
+    public final boolean post(final Runnable r) {
+        looper.enqueue(r, false);
+        return true;
+    }
+
+    public final boolean postAtFrontOfQueue(final Runnable r) {
+        looper.enqueue(r, true);
+        return true;
+    }
+
+    public final boolean postDelayed(final Runnable r, final long delayMillis) {
+        return post(r);
+    }
+
+    public final boolean sendEmptyMessage(final int what) {
+        final Message msg = Message.obtain();
+        msg.what = what;
+        return post(new Runnable() {
+            @Override
+            public void run() {
+                handleMessage(msg);
+            }
+        });
+    }
+
+    public final boolean sendEmptyMessageDelayed(final int what, final long delayMillis) {
+        return sendEmptyMessage(what);
+    }
+
+    public final void removeCallbacks(final Runnable r) {
+        // not needed off-device
+    }
+
+    public final void removeMessages(final int what) {
+        // not needed off-device
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+}
@@ -0,0 +1,44 @@
+package android.os;
+
+public class HandlerThread extends Thread {
+    private Looper looper;
+
+    public HandlerThread(final String name) {
+        super(name);
+    }
+
+    public HandlerThread(final String name, final int priority) {
+        super(name);
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare();
+        synchronized (this) {
+            looper = Looper.myLooper();
+            notifyAll();
+        }
+        Looper.loop();
+    }
+
+    public synchronized Looper getLooper() {
+        while (looper == null && isAlive()) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return looper;
+    }
+
+    public boolean quit() {
+        final Looper l = getLooper();
+        if (l != null) {
+            l.quit();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+package android.os;
+
+import java.util.ArrayDeque;
+
+/**
+ * Minimal single-threaded looper for running notification center off-device.
+ * Messages are not dispatched by {@link #loop()} running forever - benchmarks
+ * call {@link #runPending()} to process everything posted so far.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> LOOPERS = new ThreadLocal<Looper>();
+    private static final Looper MAIN = new Looper(null);
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    private final Thread thread;
+    private volatile boolean quit;
+
+    private Looper(final Thread thread) {
+        this.thread = thread;
+    }
+
+    public static void prepare() {
+        if (LOOPERS.get() != null) {
+            throw new IllegalStateException("Only one Looper may be created per thread");
+        }
+        LOOPERS.set(new Looper(Thread.currentThread()));
+    }
+
+    public static Looper myLooper() {
+        return LOOPERS.get();
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static void loop() {
+        final Looper looper = myLooper();
+        while (!looper.quit) {
+            final Runnable next;
+            synchronized (looper.queue) {
+                while (looper.queue.isEmpty() && !looper.quit) {
+                    try {
+                        looper.queue.wait();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+                next = looper.queue.poll();
+            }
+            if (next != null) {
+                next.run();
+            }
+        }
+    }
+
+    /**
+     * Runs all messages posted so far (and those they post) on the calling
+     * thread. Not part of Android API.
+     *
+     * @return number of messages run
+     */
+    public int runPending() {
+        int count = 0;
+        Runnable next = poll();
+        while (next != null) {
+            next.run();
+            count++;
+            next = poll();
+        }
+        return count;
+    }
+
+    private Runnable poll() {
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    void enqueue(final Runnable runnable, final boolean atFront) {
+        synchronized (queue) {
+            if (atFront) {
+                queue.addFirst(runnable);
+            } else {
+                queue.addLast(runnable);
+            }
+            queue.notify();
+        }
+    }
+
+    public void quit() {
+        quit = true;
+        synchronized (queue) {
+            queue.notify();
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+}
@@ -0,0 +1,63 @@
+package pl.polidea.utility.notificationcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+
+public class DeliveryMetricsTest {
+
+    static class TestNotification implements Notification {
+    }
+
+    static class SubNotification extends TestNotification {
+    }
+
+    private static class CountingListener implements NotificationListener<TestNotification> {
+        int received;
+
+        @Override
+        public void notificationReceived(final TestNotification notification) {
+            received++;
+        }
+    }
+
+    @Test
+    public void recordsExecutionPerListener() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.setDeliveryMetrics(new DeliveryMetrics());
+        final CountingListener listener = new CountingListener();
+        center.registerListener(TestNotification.class, listener);
+        center.emitNotification(TestNotification.class, new TestNotification());
+        center.emitNotification(SubNotification.class, new SubNotification());
+        assertEquals(2, center.getListenerExecution(TestNotification.class, listener).getCount());
+        assertEquals(2, center.getDeliveryMetrics().getExecution(TestNotification.class).getCount()
+                + center.getDeliveryMetrics().getExecution(SubNotification.class).getCount());
+        center.setDeliveryMetrics(new DeliveryMetrics());
+        assertEquals(0, center.getListenerExecution(TestNotification.class, listener).getCount());
+        center.unregisterListener(TestNotification.class, listener);
+        assertNull(center.getListenerExecution(TestNotification.class, listener));
+    }
+
+    @Test
+    public void metricsDoNotHoldUnregisteredListener() throws InterruptedException {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        final DeliveryMetrics metrics = new DeliveryMetrics();
+        center.setDeliveryMetrics(metrics);
+        CountingListener listener = new CountingListener();
+        final WeakReference<CountingListener> reference = new WeakReference<CountingListener>(listener);
+        center.registerListener(TestNotification.class, listener);
+        center.emitNotification(TestNotification.class, new TestNotification());
+        center.unregisterListener(TestNotification.class, listener);
+        listener = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+}
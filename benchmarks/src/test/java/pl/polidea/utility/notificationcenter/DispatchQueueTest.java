@@ -0,0 +1,292 @@
+package pl.polidea.utility.notificationcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.notificationcenter.NotificationCenter.OverflowPolicy;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Priority;
+import pl.polidea.utility.notificationcenter.NotificationCenter.QueueStats;
+import android.os.Handler;
+import android.os.Looper;
+
+public class DispatchQueueTest {
+
+    static class ThreadNotification implements Notification {
+        final Thread thread = Thread.currentThread();
+    }
+
+    static class ValueNotification implements Notification {
+        final int value;
+
+        ValueNotification(final int value) {
+            this.value = value;
+        }
+    }
+
+    static class LowNotification extends ValueNotification {
+        LowNotification(final int value) {
+            super(value);
+        }
+    }
+
+    static class HighNotification extends ValueNotification {
+        HighNotification(final int value) {
+            super(value);
+        }
+    }
+
+    /**
+     * Runs tasks when asked, swallowing what listeners throw like a looper
+     * which survived the exception.
+     */
+    static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        int failures;
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                try {
+                    tasks.remove(0).run();
+                } catch (final IllegalStateException e) {
+                    failures++;
+                }
+            }
+        }
+    }
+
+    private static NotificationListener<ThreadNotification> throwingOnce(final AtomicInteger received) {
+        return new NotificationListener<ThreadNotification>() {
+            @Override
+            public void notificationReceived(final ThreadNotification notification) {
+                if (received.incrementAndGet() == 1) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+        };
+    }
+
+    private static NotificationListener<ValueNotification> collecting(final List<Integer> values) {
+        return new NotificationListener<ValueNotification>() {
+            @Override
+            public void notificationReceived(final ValueNotification notification) {
+                values.add(notification.value);
+            }
+        };
+    }
+
+    private static List<Integer> emitIntoBoundedQueue(final OverflowPolicy overflow, final int count,
+            final long dropped) {
+        final ManualExecutor executor = new ManualExecutor();
+        final NotificationCenter center = new NotificationCenter(new ExecutorDispatcher(executor));
+        center.setQueueBound(ValueNotification.class, 2, overflow);
+        final List<Integer> values = new ArrayList<Integer>();
+        center.registerListener(ValueNotification.class, collecting(values));
+        for (int i = 1; i <= count; i++) {
+            center.emitNotification(ValueNotification.class, new ValueNotification(i));
+        }
+        QueueStats stats = center.getQueueStats(ValueNotification.class);
+        assertEquals(2, stats.getDepth());
+        assertEquals(dropped, stats.getDropped());
+        executor.runAll();
+        stats = center.getQueueStats(ValueNotification.class);
+        assertEquals(0, stats.getDepth());
+        return values;
+    }
+
+    @Test
+    public void dropOldestKeepsLatestNotifications() {
+        assertEquals(Arrays.asList(4, 5), emitIntoBoundedQueue(OverflowPolicy.DROP_OLDEST, 5, 3));
+    }
+
+    @Test
+    public void dropNewestKeepsWaitingNotifications() {
+        assertEquals(Arrays.asList(1, 2), emitIntoBoundedQueue(OverflowPolicy.DROP_NEWEST, 5, 3));
+    }
+
+    @Test
+    public void rejectThrowsWhenQueueIsFull() {
+        final ManualExecutor executor = new ManualExecutor();
+        final NotificationCenter center = new NotificationCenter(new ExecutorDispatcher(executor));
+        center.setQueueBound(ValueNotification.class, 2, OverflowPolicy.REJECT);
+        final List<Integer> values = new ArrayList<Integer>();
+        center.registerListener(ValueNotification.class, collecting(values));
+        center.emitNotification(ValueNotification.class, new ValueNotification(1));
+        center.emitNotification(ValueNotification.class, new ValueNotification(2));
+        try {
+            center.emitNotification(ValueNotification.class, new ValueNotification(3));
+            fail("emitting into full queue should throw");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, center.getQueueStats(ValueNotification.class).getDropped());
+        executor.runAll();
+        assertEquals(Arrays.asList(1, 2), values);
+    }
+
+    private static NotificationCenter prioritizedCenter(final Dispatcher dispatcher, final List<Integer> values) {
+        final NotificationCenter center = new NotificationCenter(dispatcher);
+        center.enableBatching(16);
+        center.setPriority(LowNotification.class, Priority.LOW);
+        center.setPriority(HighNotification.class, Priority.HIGH);
+        // listener of the base type receives the subtypes as well
+        center.registerListener(ValueNotification.class, collecting(values));
+        return center;
+    }
+
+    @Test
+    public void drainDeliversLanesInPriorityOrder() {
+        final ManualExecutor executor = new ManualExecutor();
+        final List<Integer> values = new ArrayList<Integer>();
+        final NotificationCenter center = prioritizedCenter(new ExecutorDispatcher(executor), values);
+        center.emitNotification(LowNotification.class, new LowNotification(1));
+        center.emitNotification(ValueNotification.class, new ValueNotification(2));
+        center.emitNotification(HighNotification.class, new HighNotification(3));
+        center.emitNotification(LowNotification.class, new LowNotification(4));
+        center.emitNotification(ValueNotification.class, new ValueNotification(5));
+        center.emitNotification(HighNotification.class, new HighNotification(6));
+        executor.runAll();
+        // highest lane first, emitting order within the lane
+        assertEquals(Arrays.asList(3, 6, 2, 5, 1, 4), values);
+    }
+
+    @Test
+    public void highPriorityJumpsAheadOfWaitingWork() {
+        final List<Integer> values = new ArrayList<Integer>();
+        final Looper looper = Looper.getMainLooper();
+        looper.runPending();
+        final NotificationCenter center = prioritizedCenter(new HandlerDispatcher(looper), values);
+        center.emitNotification(ValueNotification.class, new ValueNotification(1));
+        new Handler(looper).post(new Runnable() {
+            @Override
+            public void run() {
+                values.add(0);
+            }
+        });
+        center.emitNotification(HighNotification.class, new HighNotification(2));
+        center.emitNotification(HighNotification.class, new HighNotification(3));
+        looper.runPending();
+        // urgent drain is posted at front of the looper's queue
+        assertEquals(Arrays.asList(2, 3, 1, 0), values);
+    }
+
+    private static void emitAfterThrowingListener(final Priority priority) {
+        final ManualExecutor executor = new ManualExecutor();
+        final NotificationCenter center = new NotificationCenter(new ExecutorDispatcher(executor));
+        center.enableBatching(4);
+        center.setPriority(ThreadNotification.class, priority);
+        final AtomicInteger received = new AtomicInteger();
+        center.registerListener(ThreadNotification.class, throwingOnce(received));
+        for (int i = 0; i < 6; i++) {
+            center.emitNotification(ThreadNotification.class, new ThreadNotification());
+        }
+        executor.runAll();
+        assertEquals(1, executor.failures);
+        assertEquals(6, received.get());
+        for (int i = 0; i < 5; i++) {
+            center.emitNotification(ThreadNotification.class, new ThreadNotification());
+        }
+        executor.runAll();
+        assertEquals(11, received.get());
+    }
+
+    @Test
+    public void drainSurvivesThrowingListener() {
+        emitAfterThrowingListener(Priority.NORMAL);
+    }
+
+    @Test
+    public void urgentDrainSurvivesThrowingListener() {
+        emitAfterThrowingListener(Priority.HIGH);
+    }
+
+    @Test
+    public void directDispatcherDeliversBeforeEmitReturnsWhenBatching() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.enableBatching(4);
+        final AtomicInteger received = new AtomicInteger();
+        center.registerListener(ThreadNotification.class, new NotificationListener<ThreadNotification>() {
+            @Override
+            public void notificationReceived(final ThreadNotification notification) {
+                if (received.incrementAndGet() < 50) {
+                    // nested emission must not be queued behind this one
+                    final int before = received.get();
+                    center.emitNotification(ThreadNotification.class, new ThreadNotification());
+                    assertTrue(received.get() > before);
+                }
+            }
+        });
+        center.emitNotification(ThreadNotification.class, new ThreadNotification());
+        assertEquals(50, received.get());
+    }
+
+    @Test
+    public void directDispatcherDeliversOnEmittingThread() throws InterruptedException {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.enableBatching(16);
+        center.setPriority(ThreadNotification.class, Priority.HIGH);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger foreign = new AtomicInteger();
+        center.registerListener(ThreadNotification.class, new NotificationListener<ThreadNotification>() {
+            @Override
+            public void notificationReceived(final ThreadNotification notification) {
+                if (notification.thread != Thread.currentThread()) {
+                    foreign.incrementAndGet();
+                }
+                received.incrementAndGet();
+            }
+        });
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 10000; n++) {
+                        final int before = received.get();
+                        center.emitNotification(ThreadNotification.class, new ThreadNotification());
+                        if (received.get() == before) {
+                            foreign.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, received.get());
+        assertEquals(0, foreign.get());
+    }
+
+    @Test
+    public void directDispatcherKeepsSingleQueue() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.enableBatching(4);
+        final ThreadNotification notification = new ThreadNotification();
+        final ThreadNotification[] received = new ThreadNotification[1];
+        center.registerListener(ThreadNotification.class, new NotificationListener<ThreadNotification>() {
+            @Override
+            public void notificationReceived(final ThreadNotification n) {
+                received[0] = n;
+            }
+        });
+        center.emitNotification(ThreadNotification.class, notification);
+        assertSame(notification, received[0]);
+    }
+}
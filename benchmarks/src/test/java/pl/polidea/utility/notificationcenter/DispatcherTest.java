@@ -0,0 +1,140 @@
+package pl.polidea.utility.notificationcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Predicate;
+import android.os.Handler;
+import android.os.Looper;
+
+public class DispatcherTest {
+
+    static class TestNotification implements Notification {
+    }
+
+    static class NumberNotification implements Notification {
+        final int number;
+
+        NumberNotification(final int number) {
+            this.number = number;
+        }
+    }
+
+    private static class CollectingExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static Predicate<NumberNotification> parity(final int remainder, final AtomicInteger evaluations) {
+        return new Predicate<NumberNotification>() {
+            @Override
+            public boolean apply(final NumberNotification notification) {
+                evaluations.incrementAndGet();
+                return notification.number % 2 == remainder;
+            }
+        };
+    }
+
+    private static NotificationListener<NumberNotification> collecting(final List<Integer> numbers) {
+        return new NotificationListener<NumberNotification>() {
+            @Override
+            public void notificationReceived(final NumberNotification notification) {
+                numbers.add(notification.number);
+            }
+        };
+    }
+
+    private static NotificationListener<TestNotification> newListener() {
+        return new NotificationListener<TestNotification>() {
+            @Override
+            public void notificationReceived(final TestNotification notification) {
+                // nothing
+            }
+        };
+    }
+
+    @Test
+    public void dispatchersOfSameTargetAreEqual() {
+        final Executor executor = new CollectingExecutor();
+        assertEquals(new ExecutorDispatcher(executor), new ExecutorDispatcher(executor));
+        assertEquals(new ExecutorDispatcher(executor).hashCode(), new ExecutorDispatcher(executor).hashCode());
+        assertFalse(new ExecutorDispatcher(executor).equals(new ExecutorDispatcher(new CollectingExecutor())));
+        final Looper looper = Looper.getMainLooper();
+        assertEquals(new HandlerDispatcher(looper), new HandlerDispatcher(new Handler(looper)));
+        assertEquals(new HandlerDispatcher(looper).hashCode(), new HandlerDispatcher(looper).hashCode());
+    }
+
+    @Test
+    public void equalDispatchersShareQueue() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.enableBatching(16);
+        final CollectingExecutor executor = new CollectingExecutor();
+        for (int i = 0; i < 100; i++) {
+            center.registerListener(TestNotification.class, newListener(), new ExecutorDispatcher(executor));
+        }
+        center.emitNotification(TestNotification.class, new TestNotification());
+        // single queue posts single drain delivering to all the listeners
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void filteredListenersReceiveAcceptedNotificationsOnly() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center.enableBatching(16);
+        final CollectingExecutor executor = new CollectingExecutor();
+        final Dispatcher dispatcher = new ExecutorDispatcher(executor);
+        final AtomicInteger evaluations = new AtomicInteger();
+        final List<Integer> even = new ArrayList<Integer>();
+        final List<Integer> odd = new ArrayList<Integer>();
+        final List<Integer> all = new ArrayList<Integer>();
+        center.registerFilteredListener(NumberNotification.class, parity(0, evaluations), collecting(even),
+                dispatcher);
+        center.registerListener(NumberNotification.class, collecting(all), dispatcher);
+        center.registerFilteredListener(NumberNotification.class, parity(1, evaluations), collecting(odd),
+                dispatcher);
+        for (int i = 0; i < 5; i++) {
+            center.emitNotification(NumberNotification.class, new NumberNotification(i));
+        }
+        executor.runAll();
+        assertEquals(Arrays.asList(0, 2, 4), even);
+        assertEquals(Arrays.asList(1, 3), odd);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), all);
+        // accepted mask recorded on emitting is used on delivery
+        assertEquals(10, evaluations.get());
+    }
+
+    @Test
+    public void nothingIsPostedWhenNoListenerAccepts() {
+        final NotificationCenter center = new NotificationCenter(DirectDispatcher.INSTANCE);
+        final CollectingExecutor executor = new CollectingExecutor();
+        final AtomicInteger evaluations = new AtomicInteger();
+        final List<Integer> even = new ArrayList<Integer>();
+        center.registerFilteredListener(NumberNotification.class, parity(0, evaluations), collecting(even),
+                new ExecutorDispatcher(executor));
+        center.emitNotification(NumberNotification.class, new NumberNotification(1));
+        assertEquals(0, executor.tasks.size());
+        center.emitNotification(NumberNotification.class, new NumberNotification(2));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(Arrays.asList(2), even);
+    }
+}
@@ -0,0 +1,115 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRingTransportTest {
+    private static final int CAPACITY = 256;
+    private static final int RESERVED_POSITION_OFFSET = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MappedRingTransport writer;
+    private MappedRingTransport reader;
+    private final List<Integer> received = new ArrayList<Integer>();
+
+    private final NotificationTransport.FrameHandler collector = new NotificationTransport.FrameHandler() {
+        @Override
+        public void frameReceived(final int typeId, final ByteBuffer payload) {
+            final int value = payload.getInt();
+            // rest of the payload repeats the value, torn frame would not
+            while (payload.hasRemaining()) {
+                assertEquals(value, payload.getInt());
+            }
+            assertEquals(value % 7, typeId);
+            received.add(value);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("ring");
+        writer = new MappedRingTransport(file, CAPACITY);
+        reader = new MappedRingTransport(file, CAPACITY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        writer.close();
+    }
+
+    private void send(final int value, final int ints) {
+        final ByteBuffer payload = ByteBuffer.allocate(ints * 4);
+        for (int i = 0; i < ints; i++) {
+            payload.putInt(value);
+        }
+        payload.flip();
+        writer.send(value % 7, payload);
+    }
+
+    @Test
+    public void framesWrapAroundRing() {
+        int next = 0;
+        for (int round = 0; round < 200; round++) {
+            // sizes vary so that frames end at every alignment of the ring
+            for (int i = 0; i < 3; i++) {
+                send(next, 1 + next % 13);
+                next++;
+            }
+            reader.receive(collector, Integer.MAX_VALUE);
+        }
+        assertEquals(next, received.size());
+        for (int i = 0; i < next; i++) {
+            assertEquals(i, received.get(i).intValue());
+        }
+        assertEquals(0, reader.getOverruns());
+    }
+
+    @Test
+    public void slowReaderSkipsOverwrittenFrames() {
+        for (int i = 0; i < 100; i++) {
+            send(i, 5);
+        }
+        reader.receive(collector, Integer.MAX_VALUE);
+        assertEquals(1, reader.getOverruns());
+        // frames written after the overrun are received in order
+        send(100, 5);
+        reader.receive(collector, Integer.MAX_VALUE);
+        assertEquals(1, received.size());
+        assertEquals(100, received.get(0).intValue());
+    }
+
+    @Test
+    public void frameBeingOverwrittenIsNotReceived() throws IOException {
+        // three frames of 64 bytes, write position 192
+        for (int i = 0; i < 3; i++) {
+            send(i, 14);
+        }
+        // writer in the middle of 128 bytes frame, padded to the start of the
+        // ring where the first frame lies
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(RESERVED_POSITION_OFFSET);
+            raw.writeLong(192 + 64 + 128);
+        } finally {
+            raw.close();
+        }
+        assertEquals(0, reader.receive(collector, Integer.MAX_VALUE));
+        assertEquals(1, reader.getOverruns());
+    }
+}
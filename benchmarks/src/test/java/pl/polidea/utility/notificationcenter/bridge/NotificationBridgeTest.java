@@ -0,0 +1,90 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.Notification;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+
+public class NotificationBridgeTest {
+    private static final int CAPACITY = 4096;
+    private static final int TYPE_ID = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static class TestNotification implements Notification {
+        final int value;
+
+        TestNotification(final int value) {
+            this.value = value;
+        }
+    }
+
+    private static final NotificationCodec<TestNotification> CODEC = new NotificationCodec<TestNotification>() {
+        @Override
+        public void encode(final TestNotification notification, final ByteBuffer out) {
+            out.putInt(notification.value);
+        }
+
+        @Override
+        public TestNotification decode(final ByteBuffer in) {
+            return new TestNotification(in.getInt());
+        }
+    };
+
+    private static class CountingListener implements NotificationListener<TestNotification> {
+        int count;
+
+        @Override
+        public void notificationReceived(final TestNotification notification) {
+            count++;
+        }
+    }
+
+    @Test
+    public void twoWayBridgesDoNotEcho() throws IOException {
+        // one-way rings, so each center has outbound and inbound bridge
+        final File ringToB = folder.newFile("toB");
+        final File ringToA = folder.newFile("toA");
+        final MappedRingTransport toB = new MappedRingTransport(ringToB, CAPACITY);
+        final MappedRingTransport fromA = new MappedRingTransport(ringToB, CAPACITY);
+        final MappedRingTransport toA = new MappedRingTransport(ringToA, CAPACITY);
+        final MappedRingTransport fromB = new MappedRingTransport(ringToA, CAPACITY);
+        final NotificationCenter centerA = new NotificationCenter(DirectDispatcher.INSTANCE);
+        final NotificationCenter centerB = new NotificationCenter(DirectDispatcher.INSTANCE);
+        new NotificationBridge(centerA, toB).forward(TestNotification.class, TYPE_ID, CODEC);
+        final NotificationBridge inboundA = new NotificationBridge(centerA, fromB);
+        inboundA.accept(TestNotification.class, TYPE_ID, CODEC);
+        new NotificationBridge(centerB, toA).forward(TestNotification.class, TYPE_ID, CODEC);
+        final NotificationBridge inboundB = new NotificationBridge(centerB, fromA);
+        inboundB.accept(TestNotification.class, TYPE_ID, CODEC);
+        final CountingListener listenerA = new CountingListener();
+        final CountingListener listenerB = new CountingListener();
+        centerA.registerListener(TestNotification.class, listenerA);
+        centerB.registerListener(TestNotification.class, listenerB);
+
+        centerA.emitNotification(TestNotification.class, new TestNotification(1));
+        for (int i = 0; i < 10; i++) {
+            inboundB.poll(Integer.MAX_VALUE);
+            inboundA.poll(Integer.MAX_VALUE);
+        }
+        assertEquals(1, listenerA.count);
+        assertEquals(1, listenerB.count);
+
+        // notifications emitted locally on the polling thread are forwarded
+        centerB.emitNotification(TestNotification.class, new TestNotification(2));
+        assertEquals(1, inboundA.poll(Integer.MAX_VALUE));
+        assertEquals(0, inboundB.poll(Integer.MAX_VALUE));
+        assertEquals(2, listenerA.count);
+    }
+}
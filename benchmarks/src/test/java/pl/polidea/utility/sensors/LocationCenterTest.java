@@ -0,0 +1,104 @@
+package pl.polidea.utility.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.sensors.LocationCenter.LocationChangedNotification;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+
+public class LocationCenterTest {
+    private LocationManager locationManager;
+    private NotificationCenter notificationCenter;
+    private LocationCenter center;
+
+    @Before
+    public void setUp() {
+        locationManager = new LocationManager();
+        final Context context = new Context();
+        context.putSystemService(Context.LOCATION_SERVICE, locationManager);
+        notificationCenter = new NotificationCenter(DirectDispatcher.INSTANCE);
+        center = new LocationCenter(context, notificationCenter);
+    }
+
+    @Test
+    public void providerNotRequestedIsCheckedInLocationService() {
+        locationManager.setProviderEnabled(LocationManager.GPS_PROVIDER, false);
+        assertFalse(center.isProviderEnabled(LocationCenter.SOURCETYPE_GPS));
+        assertTrue(center.isProviderEnabled(LocationCenter.SOURCETYPE_ANY));
+        locationManager.setProviderEnabled(LocationManager.NETWORK_PROVIDER, false);
+        assertFalse(center.isProviderEnabled(LocationCenter.SOURCETYPE_ANY));
+        locationManager.setProviderEnabled(LocationManager.GPS_PROVIDER, true);
+        assertTrue(center.isProviderEnabled(LocationCenter.SOURCETYPE_GPS));
+    }
+
+    @Test
+    public void requestedProviderFollowsCallbacks() {
+        center.startCollecting(LocationCenter.SOURCETYPE_GPS, 0, 0);
+        locationManager.getListener(LocationManager.GPS_PROVIDER).onProviderDisabled(LocationManager.GPS_PROVIDER);
+        // the service is not asked while the provider is requested
+        locationManager.setProviderEnabled(LocationManager.GPS_PROVIDER, true);
+        assertFalse(center.isProviderEnabled(LocationCenter.SOURCETYPE_GPS));
+        center.stopCollecting(LocationCenter.SOURCETYPE_GPS);
+        assertTrue(center.isProviderEnabled(LocationCenter.SOURCETYPE_GPS));
+    }
+
+    @Test
+    public void forcedChangeEmitsCurrentEstimate() {
+        final List<Location> emitted = new ArrayList<Location>();
+        notificationCenter.registerListener(LocationChangedNotification.class,
+                new NotificationListener<LocationChangedNotification>() {
+                    @Override
+                    public void notificationReceived(final LocationChangedNotification notification) {
+                        emitted.add(notification.getLocation());
+                    }
+                });
+        center.processLocation(LocationCenter.SOURCETYPE_GPS, fix(0, 52.2));
+        center.forceNextLocationChange();
+        // too close to the first fix to be emitted without forcing
+        center.processLocation(LocationCenter.SOURCETYPE_GPS, fix(1000, 52.20005));
+        assertEquals(2, emitted.size());
+        assertEquals(1000, emitted.get(1).getTime());
+        assertTrue(emitted.get(1).getLatitude() > emitted.get(0).getLatitude());
+        assertEquals(emitted.get(1).getLatitude(), center.getLastLocation(LocationCenter.SOURCETYPE_ANY)
+                .getLatitude(), 0);
+    }
+
+    @Test
+    public void forcingAppliesToSingleUpdate() {
+        final List<Location> emitted = new ArrayList<Location>();
+        notificationCenter.registerListener(LocationChangedNotification.class,
+                new NotificationListener<LocationChangedNotification>() {
+                    @Override
+                    public void notificationReceived(final LocationChangedNotification notification) {
+                        emitted.add(notification.getLocation());
+                    }
+                });
+        center.processLocation(LocationCenter.SOURCETYPE_GPS, fix(0, 52.2));
+        center.forceNextLocationChange();
+        for (int i = 1; i <= 20; i++) {
+            center.processLocation(LocationCenter.SOURCETYPE_GPS, fix(i * 1000, 52.2));
+        }
+        assertEquals(2, emitted.size());
+    }
+
+    private static Location fix(final long time, final double latitude) {
+        final Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setTime(time);
+        location.setLatitude(latitude);
+        location.setLongitude(21.0);
+        location.setAccuracy(5);
+        return location;
+    }
+}
@@ -0,0 +1,99 @@
+package pl.polidea.utility.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.sensors.OrientationCenter.Session;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.os.Handler;
+
+public class OrientationCenterTest {
+    private SensorManager sensorManager;
+    private OrientationCenter center;
+
+    @Before
+    public void setUp() {
+        sensorManager = new SensorManager();
+        final Context context = new Context();
+        context.putSystemService(Context.SENSOR_SERVICE, sensorManager);
+        center = new OrientationCenter(context, new NotificationCenter(DirectDispatcher.INSTANCE));
+        center.setEngine(OrientationCenter.ENGINE_ROTATION_VECTOR);
+    }
+
+    @Test
+    public void sessionsMergeReportLatencyByMinimum() {
+        sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR).setFifoMaxEventCount(300);
+        final Session background = center.openSession(SensorManager.SENSOR_DELAY_GAME, 1000);
+        assertEquals(1, sensorManager.getRegisterCount());
+        assertEquals(1000000, sensorManager.getReportLatencyUs());
+
+        final Session map = center.openSession(SensorManager.SENSOR_DELAY_GAME, 200);
+        assertEquals(2, sensorManager.getRegisterCount());
+        assertEquals(200000, sensorManager.getReportLatencyUs());
+
+        map.setMaxReportLatency(500);
+        assertEquals(3, sensorManager.getRegisterCount());
+        assertEquals(500000, sensorManager.getReportLatencyUs());
+
+        // merged latency does not change, sensors stay registered
+        final Session logger = center.openSession(SensorManager.SENSOR_DELAY_GAME, 500);
+        background.release();
+        assertEquals(3, sensorManager.getRegisterCount());
+
+        // session needing every sample immediately disables batching
+        final Session compass = center.openSession(SensorManager.SENSOR_DELAY_GAME, 0);
+        assertEquals(4, sensorManager.getRegisterCount());
+        assertEquals(0, sensorManager.getReportLatencyUs());
+
+        compass.release();
+        assertEquals(500000, sensorManager.getReportLatencyUs());
+        map.release();
+        logger.release();
+        assertEquals(null, sensorManager.getListener());
+    }
+
+    @Test
+    public void sensorWithoutFifoIsNotBatched() {
+        center.openSession(SensorManager.SENSOR_DELAY_GAME, 1000);
+        assertEquals(1, sensorManager.getRegisterCount());
+        assertEquals(0, sensorManager.getReportLatencyUs());
+    }
+
+    @Test
+    public void defaultSessionUsesReportLatency() {
+        sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR).setFifoMaxEventCount(300);
+        center.setReportLatency(1000);
+        center.startCollecting();
+        assertEquals(1000000, sensorManager.getReportLatencyUs());
+        center.stopCollecting();
+        assertEquals(null, sensorManager.getListener());
+    }
+
+    @Test
+    public void reRegistrationKeepsProcessingThread() throws InterruptedException {
+        center.setBackgroundProcessing(true);
+        final Session compass = center.openSession(SensorManager.SENSOR_DELAY_UI);
+        final Handler handler = sensorManager.getHandler();
+        final Thread thread = handler.getLooper().getThread();
+
+        final Session game = center.openSession(SensorManager.SENSOR_DELAY_GAME);
+        assertEquals(2, sensorManager.getRegisterCount());
+        assertSame(handler, sensorManager.getHandler());
+        game.setSensorDelay(SensorManager.SENSOR_DELAY_FASTEST);
+        assertEquals(3, sensorManager.getRegisterCount());
+        assertSame(handler, sensorManager.getHandler());
+
+        game.release();
+        compass.release();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+    }
+}
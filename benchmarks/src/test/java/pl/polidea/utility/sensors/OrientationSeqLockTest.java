@@ -0,0 +1,45 @@
+package pl.polidea.utility.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class OrientationSeqLockTest {
+    private static final int WRITES = 200000;
+
+    @Test(timeout = 30000)
+    public void concurrentWritersKeepSequenceConsistent() throws InterruptedException {
+        final OrientationSeqLock lock = new OrientationSeqLock();
+        final Thread sensorThread = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= WRITES; i++) {
+                    lock.write(i, i, i, i);
+                }
+            }
+        };
+        final Thread registeringThread = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WRITES; i++) {
+                    lock.writeAccuracy((i & 1) == 0);
+                }
+            }
+        };
+        sensorThread.start();
+        registeringThread.start();
+        final float[] angles = new float[3];
+        while (sensorThread.isAlive()) {
+            final long timestamp = lock.read(0, angles);
+            if (timestamp != -1) {
+                assertEquals(timestamp, angles[0], 0);
+                assertEquals(angles[0], angles[1], 0);
+                assertEquals(angles[0], angles[2], 0);
+            }
+        }
+        sensorThread.join();
+        registeringThread.join();
+        // reader would spin forever on sequence left odd
+        assertEquals(WRITES, lock.read(0, angles));
+    }
+}
@@ -0,0 +1,120 @@
+package pl.polidea.utility.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import android.hardware.SensorManager;
+
+public class QuaternionTest {
+    private static final float EPSILON = 1e-5f;
+    /**
+     * Azimuth and roll are not defined when pitch gets close to +-PI/2.
+     */
+    private static final double MAX_PITCH = 1.5;
+
+    private final Random random = new Random(42);
+
+    private Quaternion randomRotation() {
+        return new Quaternion((float) random.nextGaussian(), (float) random.nextGaussian(),
+                (float) random.nextGaussian(), (float) random.nextGaussian()).normalize();
+    }
+
+    private static void assertAngle(final String message, final float expected, final float actual,
+            final float epsilon) {
+        double difference = actual - expected;
+        if (difference > Math.PI) {
+            difference -= 2 * Math.PI;
+        } else if (difference < -Math.PI) {
+            difference += 2 * Math.PI;
+        }
+        assertEquals(message, 0, difference, epsilon);
+    }
+
+    @Test
+    public void multiplyComposesRotationMatrices() {
+        final float[] a = new float[9];
+        final float[] b = new float[9];
+        final float[] product = new float[9];
+        for (int n = 0; n < 1000; n++) {
+            final Quaternion qa = randomRotation();
+            final Quaternion qb = randomRotation();
+            qa.getRotationMatrix(a);
+            qb.getRotationMatrix(b);
+            new Quaternion().multiply(qa, qb).getRotationMatrix(product);
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    final float expected = a[i * 3] * b[j] + a[i * 3 + 1] * b[3 + j] + a[i * 3 + 2] * b[6 + j];
+                    assertEquals(expected, product[i * 3 + j], EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void multiplyMayWriteToOperand() {
+        final Quaternion a = randomRotation();
+        final Quaternion b = randomRotation();
+        final Quaternion expected = new Quaternion().multiply(a, b);
+        a.multiply(a, b);
+        assertEquals(expected.getW(), a.getW(), 0);
+        assertEquals(expected.getX(), a.getX(), 0);
+        assertEquals(expected.getY(), a.getY(), 0);
+        assertEquals(expected.getZ(), a.getZ(), 0);
+    }
+
+    @Test
+    public void rotationVectorWithoutScalarPart() {
+        final Quaternion q = randomRotation();
+        if (q.getW() < 0) {
+            q.set(-q.getW(), -q.getX(), -q.getY(), -q.getZ());
+        }
+        final Quaternion fromVector = new Quaternion().setFromRotationVector(new float[] { q.getX(), q.getY(),
+                q.getZ() });
+        assertEquals(q.getW(), fromVector.getW(), EPSILON);
+    }
+
+    @Test
+    public void orientationMatchesSensorManager() {
+        final float[] matrix = new float[9];
+        final float[] expected = new float[3];
+        final float[] actual = new float[3];
+        for (int n = 0; n < 10000; n++) {
+            final Quaternion q = randomRotation();
+            q.getRotationMatrix(matrix);
+            SensorManager.getOrientation(matrix, expected);
+            if (Math.abs(expected[1]) > MAX_PITCH) {
+                continue;
+            }
+            q.getOrientation(actual);
+            assertAngle("azimuth", expected[0], actual[0], EPSILON);
+            assertEquals("pitch", expected[1], actual[1], EPSILON);
+            assertAngle("roll", expected[2], actual[2], EPSILON);
+        }
+    }
+
+    @Test
+    public void cameraRemapMatchesRemapCoordinateSystem() {
+        final float[] deviceMatrix = new float[9];
+        final float[] cameraMatrix = new float[9];
+        final float[] expected = new float[3];
+        final float[] actual = new float[3];
+        final Quaternion camera = new Quaternion();
+        for (int n = 0; n < 10000; n++) {
+            final Quaternion device = randomRotation();
+            device.getRotationMatrix(deviceMatrix);
+            SensorManager.remapCoordinateSystem(deviceMatrix, SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X,
+                    cameraMatrix);
+            SensorManager.getOrientation(cameraMatrix, expected);
+            if (Math.abs(expected[1]) > MAX_PITCH) {
+                continue;
+            }
+            camera.multiply(device, OrientationCenter.CAMERA_REMAP).getOrientation(actual);
+            assertAngle("azimuth", expected[0], actual[0], EPSILON);
+            assertEquals("pitch", expected[1], actual[1], EPSILON);
+            assertAngle("roll", expected[2], actual[2], EPSILON);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package pl.polidea.utility.sensors.estimator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import pl.polidea.utility.sensors.LocationCenter;
+import android.location.Location;
+
+public class KalmanLocationEstimatorTest {
+    private static final double LATITUDE = 52.2;
+    private static final double LONGITUDE = 21.0;
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    private static Location fix(final long time, final double northMeters, final float accuracy) {
+        final Location location = new Location("gps");
+        location.setTime(time);
+        location.setLatitude(LATITUDE + northMeters / METERS_PER_DEGREE);
+        location.setLongitude(LONGITUDE);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    private static double northOf(final Location location) {
+        return (location.getLatitude() - LATITUDE) * METERS_PER_DEGREE;
+    }
+
+    @Test
+    public void estimateFollowsFixesBelowThreshold() {
+        final KalmanLocationEstimator estimator = new KalmanLocationEstimator();
+        assertNull(estimator.getEstimate());
+        assertTrue(estimator.push(LocationCenter.SOURCETYPE_GPS, fix(0, 0, 5)));
+        final Location emitted = estimator.getEstimate();
+        assertEquals(0, northOf(emitted), 1e-6);
+        assertSame(emitted, estimator.getEstimate());
+
+        // fix 6 meters away moves the estimate less than threshold of 10 meters
+        assertFalse(estimator.push(LocationCenter.SOURCETYPE_GPS, fix(1000, 6, 5)));
+        final Location current = estimator.getEstimate();
+        assertNotSame(emitted, current);
+        assertEquals(0, northOf(emitted), 1e-6);
+        assertTrue(northOf(current) > 1 && northOf(current) < 6);
+        assertEquals(1000, current.getTime());
+    }
+
+    @Test
+    public void altitudeIsCarriedFromLatestFixHavingIt() {
+        final KalmanLocationEstimator estimator = new KalmanLocationEstimator();
+        estimator.push(LocationCenter.SOURCETYPE_NET, fix(0, 0, 50));
+        assertFalse(estimator.getEstimate().hasAltitude());
+        final Location withAltitude = fix(1000, 0, 5);
+        withAltitude.setAltitude(120);
+        estimator.push(LocationCenter.SOURCETYPE_GPS, withAltitude);
+        assertEquals(120, estimator.getEstimate().getAltitude(), 0);
+        estimator.push(LocationCenter.SOURCETYPE_NET, fix(2000, 0, 50));
+        assertEquals(120, estimator.getEstimate().getAltitude(), 0);
+        estimator.reset();
+        estimator.push(LocationCenter.SOURCETYPE_NET, fix(3000, 0, 50));
+        assertFalse(estimator.getEstimate().hasAltitude());
+    }
+
+    @Test
+    public void fixesAcrossAntimeridianAreClose() {
+        final KalmanLocationEstimator estimator = new KalmanLocationEstimator();
+        final Location west = fix(0, 0, 5);
+        west.setLongitude(179.9999);
+        final Location east = fix(1000, 0, 5);
+        east.setLongitude(-179.9999);
+        estimator.push(LocationCenter.SOURCETYPE_GPS, west);
+        // about 14 meters apart, not the whole Earth
+        estimator.push(LocationCenter.SOURCETYPE_GPS, east);
+        final double longitude = estimator.getEstimate().getLongitude();
+        assertTrue(longitude > 179.9998 || longitude < -179.9998);
+        assertTrue(longitude >= -180 && longitude < 180);
+        for (int i = 2; i < 20; i++) {
+            east.setTime(i * 1000);
+            estimator.push(LocationCenter.SOURCETYPE_GPS, east);
+        }
+        assertEquals(-179.9999, estimator.getEstimate().getLongitude(), 1e-5);
+    }
+
+    @Test
+    public void improvingAccuracyIsEmitted() {
+        final KalmanLocationEstimator estimator = new KalmanLocationEstimator();
+        assertTrue(estimator.push(LocationCenter.SOURCETYPE_NET, fix(0, 0, 100)));
+        assertTrue(estimator.push(LocationCenter.SOURCETYPE_GPS, fix(0, 0, 5)));
+        assertTrue(estimator.getEstimate().getAccuracy() < 10);
+    }
+}
@@ -0,0 +1,103 @@
+package pl.polidea.utility.sensors.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CosineCapFilterTest {
+    // float rounding differs along the way; ValueProcessor rounds to 1/400
+    private static final float EPSILON = 1e-4f;
+    private static final int SAMPLES = 10000;
+
+    /**
+     * The filter as it was written with double precision cosine.
+     */
+    private static final class CosineReference {
+        private final float highCap;
+        private final float decay;
+        private float oldValue = 0;
+
+        CosineReference(final float highCap, final float decay) {
+            this.highCap = highCap;
+            this.decay = decay;
+        }
+
+        float push(final float val) {
+            float newValue = val;
+            if (oldValue - newValue >= Math.PI) {
+                newValue += 2 * Math.PI;
+            } else if (oldValue - newValue <= -Math.PI) {
+                newValue -= 2 * Math.PI;
+            }
+            final float diff = newValue - oldValue;
+            oldValue += function(diff);
+            if (oldValue >= Math.PI) {
+                oldValue -= 2 * Math.PI;
+            } else if (oldValue <= -Math.PI) {
+                oldValue += 2 * Math.PI;
+            }
+            return oldValue;
+        }
+
+        private float function(final float arg) {
+            return arg * (float) (1 - Math.cos(clamp(arg, -highCap, highCap) / highCap * Math.PI)) / 2.0f * decay;
+        }
+
+        private float clamp(final float a, final float min, final float max) {
+            return a > max ? max : a < min ? min : a;
+        }
+    }
+
+    private static float[] randomWalk(final long seed, final float step) {
+        final Random random = new Random(seed);
+        final float[] angles = new float[SAMPLES];
+        float angle = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            // wanders across PI as well, big jumps now and then
+            angle += random.nextInt(50) == 0 ? (random.nextFloat() - 0.5f) * 4 : (float) random.nextGaussian() * step;
+            angle = Angles.wrap(angle);
+            angles[i] = angle;
+        }
+        return angles;
+    }
+
+    private static void assertMatchesReference(final float highCap, final float decay, final float[] angles) {
+        final CosineCapFilter filter = new CosineCapFilter(highCap, decay);
+        final CosineReference reference = new CosineReference(highCap, decay);
+        for (int i = 0; i < angles.length; i++) {
+            final float expected = reference.push(angles[i]);
+            final float actual = filter.filter(angles[i], i);
+            // the same angle may come out on either side of the wrap
+            assertEquals("sample " + i, 0, Angles.difference(actual, expected), EPSILON);
+        }
+    }
+
+    @Test
+    public void azimuthMatchesCosine() {
+        assertMatchesReference(0.6f, 0.25f, randomWalk(1, 0.3f));
+    }
+
+    @Test
+    public void pitchAndRollMatchCosine() {
+        assertMatchesReference(0.08f, 0.5f, randomWalk(2, 0.05f));
+    }
+
+    @Test
+    public void batchMatchesSingleSamples() {
+        final float[] angles = randomWalk(3, 0.3f);
+        final CosineCapFilter single = new CosineCapFilter(0.6f, 0.25f);
+        final float[] expected = new float[angles.length];
+        for (int i = 0; i < angles.length; i++) {
+            expected[i] = single.filter(angles[i], i);
+        }
+        final CosineCapFilter batch = new CosineCapFilter(0.6f, 0.25f);
+        final float[] batched = angles.clone();
+        batch.filter(batched, 0, 100, 0, 1);
+        batch.filter(batched, 100, batched.length - 100, 100, 1);
+        for (int i = 0; i < angles.length; i++) {
+            assertEquals("sample " + i, expected[i], batched[i], 0);
+        }
+    }
+}
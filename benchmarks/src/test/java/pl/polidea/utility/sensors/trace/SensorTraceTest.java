@@ -0,0 +1,221 @@
+package pl.polidea.utility.sensors.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.polidea.utility.sensors.LocationCenter;
+import pl.polidea.utility.sensors.trace.SensorTraceReplay.RecordHandler;
+import android.hardware.Sensor;
+import android.location.Location;
+import android.location.LocationManager;
+
+public class SensorTraceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private final List<Object> written = new ArrayList<Object>();
+
+    /**
+     * Sample as read, values copied.
+     */
+    private static final class Sample {
+        final int sensorType;
+        final float[] values;
+        final long timestampNanos;
+
+        Sample(final int sensorType, final float[] values, final long timestampNanos) {
+            this.sensorType = sensorType;
+            this.values = values.clone();
+            this.timestampNanos = timestampNanos;
+        }
+    }
+
+    /**
+     * Location fix with its source type.
+     */
+    private static final class Fix {
+        final int type;
+        final Location location;
+
+        Fix(final int type, final Location location) {
+            this.type = type;
+            this.location = location;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "sensors.trace");
+    }
+
+    private void writeSession(final long timestampBase) throws IOException {
+        final SensorTraceWriter writer = new SensorTraceWriter(file);
+        try {
+            for (int i = 0; i < 100; i++) {
+                final long timestamp = timestampBase + i * 20000000L;
+                sample(writer, Sensor.TYPE_ACCELEROMETER, new float[] { 0.1f * i, -9.81f, i % 3 }, timestamp);
+                sample(writer, Sensor.TYPE_MAGNETIC_FIELD, new float[] { 20 - i, Float.MAX_VALUE, -0f },
+                        timestamp + 1);
+                sample(writer, Sensor.TYPE_ROTATION_VECTOR, new float[] { 0.5f, -0.5f, Float.NaN,
+                        Float.NEGATIVE_INFINITY, Float.MIN_VALUE }, timestamp - 5);
+                if (i % 10 == 0) {
+                    fix(writer, LocationCenter.SOURCETYPE_GPS, location(LocationManager.GPS_PROVIDER, i, true),
+                            timestampBase);
+                    fix(writer, LocationCenter.SOURCETYPE_NET, location(LocationManager.NETWORK_PROVIDER, i, false),
+                            timestampBase);
+                    fix(writer, LocationCenter.SOURCETYPE_GPS, location("fused", i, i % 20 == 0), timestampBase);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void sample(final SensorTraceWriter writer, final int sensorType, final float[] values,
+            final long timestampNanos) {
+        writer.sampleReceived(sensorType, values, timestampNanos);
+        written.add(new Sample(sensorType, values, timestampNanos));
+    }
+
+    private void fix(final SensorTraceWriter writer, final int type, final Location location, final long timeBase) {
+        location.setTime(location.getTime() + timeBase / 1000000);
+        writer.fixReceived(type, location);
+        written.add(new Fix(type, location));
+    }
+
+    private static Location location(final String provider, final int i, final boolean full) {
+        final Location location = new Location(provider);
+        location.setTime(1300000000000L + i * 1000);
+        location.setLatitude(52.2 + i * 1e-5);
+        location.setLongitude(-21.0 - i * 1e-5);
+        if (full) {
+            location.setAccuracy(4.5f);
+            location.setAltitude(110.25 + i);
+            location.setSpeed(1.5f);
+            location.setBearing(359.5f);
+        }
+        return location;
+    }
+
+    private List<Object> replay() throws IOException, InterruptedException {
+        final List<Object> read = new ArrayList<Object>();
+        final SensorTraceReplay replay = new SensorTraceReplay(file);
+        try {
+            final int records = replay.replay(new RecordHandler() {
+                @Override
+                public void sampleRead(final int sensorType, final float[] values, final long timestampNanos) {
+                    read.add(new Sample(sensorType, values, timestampNanos));
+                }
+
+                @Override
+                public void locationRead(final int type, final Location location) {
+                    read.add(new Fix(type, location));
+                }
+            }, false);
+            assertEquals(read.size(), records);
+        } finally {
+            replay.close();
+        }
+        return read;
+    }
+
+    private void assertRecords(final List<Object> expected, final List<Object> actual) {
+        for (int i = 0; i < actual.size(); i++) {
+            if (expected.get(i) instanceof Sample) {
+                final Sample sample = (Sample) expected.get(i);
+                final Sample read = (Sample) actual.get(i);
+                assertEquals(sample.sensorType, read.sensorType);
+                assertEquals(sample.timestampNanos, read.timestampNanos);
+                assertEquals(sample.values.length, read.values.length);
+                for (int j = 0; j < sample.values.length; j++) {
+                    // lossless, bit for bit
+                    assertEquals(Float.floatToRawIntBits(sample.values[j]), Float.floatToRawIntBits(read.values[j]));
+                }
+            } else {
+                assertFix((Fix) expected.get(i), (Fix) actual.get(i));
+            }
+        }
+    }
+
+    private static void assertFix(final Fix expected, final Fix actual) {
+        final Location location = expected.location;
+        final Location read = actual.location;
+        assertEquals(expected.type, actual.type);
+        assertEquals(location.getProvider(), read.getProvider());
+        assertEquals(location.getTime(), read.getTime());
+        assertEquals(location.getLatitude(), read.getLatitude(), 0);
+        assertEquals(location.getLongitude(), read.getLongitude(), 0);
+        assertEquals(location.hasAccuracy(), read.hasAccuracy());
+        assertEquals(location.getAccuracy(), read.getAccuracy(), 0);
+        assertEquals(location.hasAltitude(), read.hasAltitude());
+        assertEquals(location.getAltitude(), read.getAltitude(), 0);
+        assertEquals(location.hasSpeed(), read.hasSpeed());
+        assertEquals(location.getSpeed(), read.getSpeed(), 0);
+        assertEquals(location.hasBearing(), read.hasBearing());
+        assertEquals(location.getBearing(), read.getBearing(), 0);
+    }
+
+    @Test
+    public void recordsRoundTrip() throws IOException, InterruptedException {
+        writeSession(1000000000L);
+        final List<Object> read = replay();
+        assertEquals(written.size(), read.size());
+        assertRecords(written, read);
+    }
+
+    @Test
+    public void appendedSegmentsRoundTrip() throws IOException, InterruptedException {
+        writeSession(1000000000L);
+        // next session starts with fresh delta state on both sides
+        writeSession(5000000L);
+        writeSession(Long.MAX_VALUE / 2);
+        final List<Object> read = replay();
+        assertEquals(written.size(), read.size());
+        assertRecords(written, read);
+    }
+
+    @Test
+    public void truncatedTraceReplaysCompleteRecords() throws IOException, InterruptedException {
+        writeSession(1000000000L);
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            // cut in the middle of the last sample
+            raw.setLength(raw.length() - 3);
+        } finally {
+            raw.close();
+        }
+        final List<Object> read = replay();
+        assertEquals(written.size() - 1, read.size());
+        assertRecords(written, read);
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        } finally {
+            out.close();
+        }
+        try {
+            new SensorTraceReplay(file).close();
+            fail();
+        } catch (final IOException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+
+/**
+ * Delivery metrics collected by notification center when set via
+ * {@link NotificationCenter#setDeliveryMetrics(DeliveryMetrics)}. For every
+ * notification type it records latency from emitting to delivery and time
+ * spent in listeners. Time spent in callbacks of every listener is kept with
+ * its registration (so the metrics never hold listeners), see
+ * {@link NotificationCenter#getListenerExecution(Class, NotificationListener)}.
+ * Listener exceeding time budget is reported to the callback. Histograms are
+ * created on first use, after that recording does not allocate.
+ * 
+ */
+public class DeliveryMetrics {
+
+    /**
+     * Called (on the dispatching thread) when listener exceeded time budget.
+     */
+    public interface SlowListenerCallback {
+        void slowListener(Class< ? extends Notification> notificationType, NotificationListener< ? > listener,
+                long executionNanos);
+    }
+
+    private final long budgetNanos;
+    private final SlowListenerCallback callback;
+
+    private final ConcurrentHashMap<Class< ? >, LatencyHistogram> typeLatency = new ConcurrentHashMap<Class< ? >, LatencyHistogram>();
+    private final ConcurrentHashMap<Class< ? >, LatencyHistogram> typeExecution = new ConcurrentHashMap<Class< ? >, LatencyHistogram>();
+
+    /**
+     * Creates metrics without time budget.
+     */
+    public DeliveryMetrics() {
+        this(0, null);
+    }
+
+    /**
+     * Creates metrics with time budget for listeners.
+     * 
+     * @param budgetNanos
+     *            maximum time single listener call should take (0 for no
+     *            limit)
+     * @param callback
+     *            called when listener exceeds the budget
+     */
+    public DeliveryMetrics(final long budgetNanos, final SlowListenerCallback callback) {
+        if (budgetNanos < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budgetNanos);
+        }
+        this.budgetNanos = budgetNanos;
+        this.callback = callback;
+    }
+
+    /**
+     * Returns emit-to-delivery latency of the type.
+     * 
+     * @param notificationType
+     *            type
+     * @return histogram (empty if nothing recorded yet)
+     */
+    public LatencyHistogram getLatency(final Class< ? extends Notification> notificationType) {
+        return histogram(typeLatency, notificationType);
+    }
+
+    /**
+     * Returns time spent in listener callbacks for notifications of the
+     * type.
+     * 
+     * @param notificationType
+     *            type
+     * @return histogram (empty if nothing recorded yet)
+     */
+    public LatencyHistogram getExecution(final Class< ? extends Notification> notificationType) {
+        return histogram(typeExecution, notificationType);
+    }
+
+    void recordLatency(final Class< ? > notificationType, final long nanos) {
+        histogram(typeLatency, notificationType).record(nanos);
+    }
+
+    void recordExecution(final Class< ? extends Notification> notificationType, final Subscription subscription,
+            final NotificationListener< ? > listener, final long nanos) {
+        histogram(typeExecution, notificationType).record(nanos);
+        subscription.getExecution(this).record(nanos);
+        if (budgetNanos > 0 && nanos > budgetNanos && callback != null) {
+            callback.slowListener(notificationType, listener, nanos);
+        }
+    }
+
+    private static <K> LatencyHistogram histogram(final ConcurrentHashMap<K, LatencyHistogram> histograms,
+            final K key) {
+        final LatencyHistogram histogram = histograms.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram existing = histograms.putIfAbsent(key, created);
+        return existing == null ? created : existing;
+    }
+}
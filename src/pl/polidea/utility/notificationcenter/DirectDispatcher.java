@@ -0,0 +1,23 @@
+package pl.polidea.utility.notificationcenter;
+
+/**
+ * Runs tasks synchronously on the emitting thread. Listeners using it are
+ * called before emitNotification returns, so they must be fast and
+ * thread-safe. Useful also for running notification center on plain JVM.
+ * 
+ */
+public final class DirectDispatcher implements Dispatcher {
+    /**
+     * The only instance needed.
+     */
+    public static final DirectDispatcher INSTANCE = new DirectDispatcher();
+
+    private DirectDispatcher() {
+        // use INSTANCE
+    }
+
+    @Override
+    public void dispatch(final Runnable task) {
+        task.run();
+    }
+}
@@ -0,0 +1,219 @@
+package pl.polidea.utility.notificationcenter;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.Priority;
+
+/**
+ * Queue of tasks waiting for delivery through single dispatcher. In
+ * immediate mode every task is handed over to the dispatcher separately. In
+ * batching mode tasks are appended to an internal FIFO and a single drain
+ * runnable is dispatched, which delivers everything queued so far (up to a
+ * cap) - for handler dispatcher in one Looper message.
+ * <p>
+ * There is separate FIFO lane for every priority, drain always takes tasks
+ * from the highest non-empty lane. High priority tasks are never handed over
+ * to the dispatcher separately - they are delivered by urgent drain, which
+ * goes to the front of dispatcher's queue when the dispatcher supports it.
+ * Since the urgent drain delivers all waiting high priority tasks in order,
+ * order within the lane is kept even though every drain jumps the queue.
+ * <p>
+ * Queue of {@link DirectDispatcher} always stays in immediate mode and does
+ * not use lanes - listeners are called by the emitting thread before
+ * emitNotification returns, as the dispatcher promises.
+ *
+ */
+final class DispatchQueue {
+    private static final int HIGH = Priority.HIGH.ordinal();
+    private static final int LANES = Priority.values().length;
+
+    final int id;
+    final Dispatcher dispatcher;
+    private final boolean synchronous;
+    private final Object lock = new Object();
+
+    private volatile int maxPerDrain = 0;
+
+    private final DispatchTask[] heads = new DispatchTask[LANES];
+    private final DispatchTask[] tails = new DispatchTask[LANES];
+    private int size;
+    private boolean drainScheduled;
+    private boolean urgentDrainScheduled;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable urgentDrain = new Runnable() {
+        @Override
+        public void run() {
+            drainUrgent();
+        }
+    };
+
+    DispatchQueue(final int id, final Dispatcher dispatcher) {
+        this.id = id;
+        this.dispatcher = dispatcher;
+        this.synchronous = dispatcher instanceof DirectDispatcher;
+    }
+
+    /**
+     * Sets batching mode.
+     *
+     * @param maxPerDrain
+     *            maximum number of tasks delivered in one drain; 0 switches
+     *            batching off
+     */
+    void setMaxPerDrain(final int maxPerDrain) {
+        this.maxPerDrain = maxPerDrain;
+    }
+
+    void enqueue(final DispatchTask task) {
+        if (synchronous) {
+            // queuing would let another emitting thread deliver the task
+            // and drain would recurse on the stack
+            dispatcher.dispatch(task);
+            return;
+        }
+        if (task.priority == HIGH) {
+            enqueueUrgent(task);
+            return;
+        }
+        if (maxPerDrain == 0) {
+            dispatcher.dispatch(task);
+            return;
+        }
+        boolean schedule = false;
+        synchronized (lock) {
+            append(task);
+            if (!drainScheduled) {
+                drainScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            dispatcher.dispatch(drain);
+        }
+    }
+
+    private void enqueueUrgent(final DispatchTask task) {
+        boolean schedule = false;
+        synchronized (lock) {
+            append(task);
+            if (!urgentDrainScheduled) {
+                urgentDrainScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            dispatchUrgentDrain();
+        }
+    }
+
+    private void dispatchUrgentDrain() {
+        if (dispatcher instanceof PriorityDispatcher) {
+            ((PriorityDispatcher) dispatcher).dispatchAtFront(urgentDrain);
+        } else {
+            dispatcher.dispatch(urgentDrain);
+        }
+    }
+
+    private void append(final DispatchTask task) {
+        final int lane = task.priority;
+        if (tails[lane] == null) {
+            heads[lane] = task;
+        } else {
+            tails[lane].next = task;
+        }
+        tails[lane] = task;
+        size++;
+    }
+
+    private DispatchTask poll(final int lowestLane) {
+        synchronized (lock) {
+            for (int lane = LANES - 1; lane >= lowestLane; lane--) {
+                final DispatchTask task = heads[lane];
+                if (task != null) {
+                    heads[lane] = task.next;
+                    if (heads[lane] == null) {
+                        tails[lane] = null;
+                    }
+                    task.next = null;
+                    size--;
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void drain() {
+        int count;
+        synchronized (lock) {
+            count = size;
+        }
+        final int cap = maxPerDrain;
+        if (cap > 0 && count > cap) {
+            count = cap;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                final DispatchTask task = poll(0);
+                if (task == null) {
+                    break;
+                }
+                task.run();
+            }
+        } finally {
+            // also when listener threw, otherwise the queue would stay
+            // scheduled and nothing would be dispatched any more
+            finishDrain();
+        }
+    }
+
+    private void finishDrain() {
+        synchronized (lock) {
+            if (size == 0) {
+                drainScheduled = false;
+                return;
+            }
+        }
+        // more was queued in the meantime or the cap was hit - let the
+        // dispatcher run other work (frame drawing) first
+        dispatcher.dispatch(drain);
+    }
+
+    private void drainUrgent() {
+        boolean drained = false;
+        try {
+            while (true) {
+                final DispatchTask task;
+                synchronized (lock) {
+                    task = poll(HIGH);
+                    if (task == null) {
+                        urgentDrainScheduled = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        } finally {
+            if (!drained) {
+                // listener threw - the rest of the lane goes in next drain
+                finishUrgentDrain();
+            }
+        }
+    }
+
+    private void finishUrgentDrain() {
+        synchronized (lock) {
+            if (heads[HIGH] == null) {
+                urgentDrainScheduled = false;
+                return;
+            }
+        }
+        dispatchUrgentDrain();
+    }
+}
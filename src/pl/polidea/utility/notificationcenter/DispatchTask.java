@@ -0,0 +1,98 @@
+package pl.polidea.utility.notificationcenter;
+
+/**
+ * Reusable unit of delivery - single notification to be dispatched to the
+ * listeners of its type which use given queue (or to single target
+ * subscription only). Instances are kept in a small pool owned by the
+ * notification center (similar to android.os.Message pool), so that steady
+ * state emitting does not allocate. Never keep reference to the task after it
+ * has been run - it is recycled immediately.
+ *
+ */
+final class DispatchTask implements Runnable {
+    private static final int MAX_POOL_SIZE = 50;
+
+    private final Pool pool;
+
+    Class< ? extends Notification> type;
+    Notification notification;
+    Throwable emitTrace;
+    long emitNanos;
+    int priority;
+    ListenerRegistry.Snapshot snapshot;
+    long acceptedMask;
+    DispatchQueue queue;
+    TypePolicy policy;
+    Subscription target;
+    DispatchTask next;
+
+    private DispatchTask(final Pool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void run() {
+        pool.center.deliver(this);
+        recycle();
+    }
+
+    /**
+     * Returns the task to the pool it came from. Fields are cleared so that
+     * no notification is retained by the pool.
+     */
+    void recycle() {
+        type = null;
+        notification = null;
+        emitTrace = null;
+        emitNanos = 0;
+        queue = null;
+        policy = null;
+        target = null;
+        snapshot = null;
+        acceptedMask = 0;
+        pool.release(this);
+    }
+
+    /**
+     * Pool of tasks. Bounded, so that a burst of emits does not leave lots of
+     * garbage cached forever. Guarded by a lock held for a few instructions
+     * only: tasks are released on other threads than they are obtained on,
+     * so per-thread pools would not be reused, and lock-free stack of
+     * recycled nodes is exposed to ABA without allocating stamps.
+     */
+    static final class Pool {
+        private final NotificationCenter center;
+        private final Object lock = new Object();
+        private DispatchTask head;
+        private int size;
+
+        Pool(final NotificationCenter center) {
+            this.center = center;
+        }
+
+        DispatchTask obtain() {
+            synchronized (lock) {
+                if (head != null) {
+                    final DispatchTask task = head;
+                    head = task.next;
+                    task.next = null;
+                    size--;
+                    return task;
+                }
+            }
+            return new DispatchTask(this);
+        }
+
+        void release(final DispatchTask task) {
+            synchronized (lock) {
+                if (size < MAX_POOL_SIZE) {
+                    task.next = head;
+                    head = task;
+                    size++;
+                } else {
+                    task.next = null;
+                }
+            }
+        }
+    }
+}
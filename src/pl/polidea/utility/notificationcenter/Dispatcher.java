@@ -0,0 +1,20 @@
+package pl.polidea.utility.notificationcenter;
+
+/**
+ * Decides on which thread listeners are called. Notification center hands
+ * over tasks to the dispatcher of the listener, the dispatcher runs them.
+ * Implementations must run tasks submitted from single thread in the order
+ * they were submitted if listeners are to receive notifications in emitting
+ * order.
+ * 
+ */
+public interface Dispatcher {
+
+    /**
+     * Runs the task - now or later, on this or another thread.
+     * 
+     * @param task
+     *            task to run
+     */
+    void dispatch(Runnable task);
+}
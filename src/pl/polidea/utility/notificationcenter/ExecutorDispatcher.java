@@ -0,0 +1,37 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Dispatches tasks to the executor. Use single-threaded executor if listeners
+ * should receive notifications in emitting order (or enable batching in
+ * notification center, which also keeps the order). Dispatchers of the same
+ * executor are equal, so they share single queue in notification center.
+ * 
+ */
+public class ExecutorDispatcher implements Dispatcher {
+    private final Executor executor;
+
+    public ExecutorDispatcher(final Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void dispatch(final Runnable task) {
+        executor.execute(task);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o != null && o.getClass() == getClass() && ((ExecutorDispatcher) o).executor.equals(executor);
+    }
+
+    @Override
+    public int hashCode() {
+        return executor.hashCode();
+    }
+}
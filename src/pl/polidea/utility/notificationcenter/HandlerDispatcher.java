@@ -0,0 +1,86 @@
+package pl.polidea.utility.notificationcenter;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Dispatches tasks to looper thread via handler. This is the default
+ * dispatcher of notification center - created on main thread, it calls
+ * listeners on the main thread. Dispatchers of the same looper are equal, so
+ * they share single queue in notification center.
+ * 
+ */
+public class HandlerDispatcher implements PriorityDispatcher {
+    private final Handler handler;
+
+    /**
+     * Creates dispatcher for the looper of current thread.
+     */
+    public HandlerDispatcher() {
+        this(new Handler());
+    }
+
+    /**
+     * Creates dispatcher for the looper specified.
+     * 
+     * @param looper
+     *            looper to run tasks on
+     */
+    public HandlerDispatcher(final Looper looper) {
+        this(new Handler(looper));
+    }
+
+    /**
+     * Creates dispatcher posting to the handler.
+     * 
+     * @param handler
+     *            handler to post tasks to
+     */
+    public HandlerDispatcher(final Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Creates dispatcher running tasks on a new background looper thread.
+     * Quit the looper (getLooper().quit()) when the dispatcher is no longer
+     * needed.
+     * 
+     * @param threadName
+     *            name of the thread
+     * @return dispatcher
+     */
+    public static HandlerDispatcher startBackground(final String threadName) {
+        final HandlerThread thread = new HandlerThread(threadName);
+        thread.start();
+        return new HandlerDispatcher(thread.getLooper());
+    }
+
+    @Override
+    public void dispatch(final Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void dispatchAtFront(final Runnable task) {
+        handler.postAtFrontOfQueue(task);
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public Looper getLooper() {
+        return handler.getLooper();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o != null && o.getClass() == getClass() && ((HandlerDispatcher) o).getLooper().equals(getLooper());
+    }
+
+    @Override
+    public int hashCode() {
+        return getLooper().hashCode();
+    }
+}
@@ -0,0 +1,262 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+
+/**
+ * Copy-on-write registry of listeners. For each notification type it keeps an
+ * immutable snapshot of subscriptions which is replaced as a whole whenever
+ * the set of listeners changes. Readers (emitting and dispatching threads)
+ * never lock and never copy - they simply read the current snapshot. Writers
+ * are serialized on a private lock so that concurrent register/unregister
+ * calls do not lose updates.
+ * <p>
+ * Listeners registered for a type receive notifications of all its subtypes.
+ * To keep emitting cheap, subscriptions of all supertypes are flattened into
+ * single snapshot per emitted class and cached. The cache is cleared on every
+ * change and rebuilt lazily, so the hierarchy is walked only once per class
+ * after each change.
+ * <p>
+ * Weakly held listeners are purged when their references are cleared - the
+ * registry drains its reference queue on purge(), which costs nothing when
+ * no listener has been collected.
+ *
+ */
+final class ListenerRegistry {
+    static final Snapshot EMPTY = new Snapshot(new Subscription[0]);
+
+    private final Object writeLock = new Object();
+    private final ConcurrentHashMap<Class< ? >, Snapshot> snapshots = new ConcurrentHashMap<Class< ? >, Snapshot>();
+    private final ConcurrentHashMap<Class< ? >, Snapshot> resolved = new ConcurrentHashMap<Class< ? >, Snapshot>();
+    private final ReferenceQueue<NotificationListener< ? >> referenceQueue = new ReferenceQueue<NotificationListener< ? >>();
+
+    /**
+     * Immutable set of subscriptions of single type together with the
+     * distinct queues they use and whether any of them has predicate, so that
+     * emitting does not have to compute them.
+     */
+    static final class Snapshot {
+        final Subscription[] subscriptions;
+        final DispatchQueue[] queues;
+        final boolean filtered;
+
+        Snapshot(final Subscription[] subscriptions) {
+            this.subscriptions = subscriptions;
+            final DispatchQueue[] distinct = new DispatchQueue[subscriptions.length];
+            int count = 0;
+            boolean anyPredicate = false;
+            for (final Subscription subscription : subscriptions) {
+                anyPredicate |= subscription.predicate != null;
+                if (!contains(distinct, count, subscription.queue)) {
+                    distinct[count++] = subscription.queue;
+                }
+            }
+            queues = new DispatchQueue[count];
+            System.arraycopy(distinct, 0, queues, 0, count);
+            filtered = anyPredicate;
+        }
+
+        private static boolean contains(final DispatchQueue[] queues, final int count, final DispatchQueue queue) {
+            for (int i = 0; i < count; i++) {
+                if (queues[i] == queue) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns current snapshot of subscriptions registered exactly for the
+     * type.
+     *
+     * @param notificationType
+     *            type of notification
+     * @return snapshot of subscriptions (never null)
+     */
+    Snapshot getRegistered(final Class< ? > notificationType) {
+        final Snapshot snapshot = snapshots.get(notificationType);
+        return snapshot == null ? EMPTY : snapshot;
+    }
+
+    /**
+     * Returns current snapshot of subscriptions receiving notifications of
+     * the class - registered for the class or any of its supertypes.
+     *
+     * @param notificationClass
+     *            class of notification
+     * @return snapshot of subscriptions (never null)
+     */
+    Snapshot get(final Class< ? > notificationClass) {
+        final Snapshot snapshot = resolved.get(notificationClass);
+        return snapshot == null ? resolve(notificationClass) : snapshot;
+    }
+
+    private Snapshot resolve(final Class< ? > notificationClass) {
+        // resolved under the write lock so that no stale snapshot is cached
+        // after concurrent change cleared the cache
+        synchronized (writeLock) {
+            Snapshot snapshot = resolved.get(notificationClass);
+            if (snapshot == null) {
+                snapshot = flatten(notificationClass);
+                resolved.put(notificationClass, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot flatten(final Class< ? > notificationClass) {
+        final Set<Class< ? >> types = new LinkedHashSet<Class< ? >>();
+        collectTypes(notificationClass, types);
+        final List<Subscription> merged = new ArrayList<Subscription>();
+        for (final Class< ? > type : types) {
+            for (final Subscription subscription : getRegistered(type).subscriptions) {
+                // weak referent may be cleared at any time, so it is read once
+                final NotificationListener< ? > listener = subscription.getListener();
+                if (listener != null && !containsListener(merged, listener)) {
+                    merged.add(subscription);
+                }
+            }
+        }
+        if (merged.isEmpty()) {
+            return EMPTY;
+        }
+        return new Snapshot(merged.toArray(new Subscription[merged.size()]));
+    }
+
+    private static void collectTypes(final Class< ? > type, final Set<Class< ? >> types) {
+        // most specific types first, so that their listeners are called first
+        for (Class< ? > current = type; current != null; current = current.getSuperclass()) {
+            types.add(current);
+        }
+        for (Class< ? > current = type; current != null; current = current.getSuperclass()) {
+            for (final Class< ? > implemented : current.getInterfaces()) {
+                if (!types.contains(implemented)) {
+                    collectTypes(implemented, types);
+                }
+            }
+        }
+    }
+
+    private static boolean containsListener(final List<Subscription> subscriptions,
+            final NotificationListener< ? > listener) {
+        for (final Subscription existing : subscriptions) {
+            if (listener.equals(existing.getListener())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds subscription to the type (if its listener is not already
+     * registered for the type).
+     *
+     * @param notificationType
+     *            type of notification
+     * @param subscription
+     *            subscription to add
+     * @return true if the subscription has been added
+     */
+    boolean add(final Class< ? > notificationType, final Subscription subscription) {
+        synchronized (writeLock) {
+            final Subscription[] current = getRegistered(notificationType).subscriptions;
+            if (indexOf(current, subscription.getListener()) >= 0) {
+                return false;
+            }
+            final Subscription[] updated = new Subscription[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscription;
+            snapshots.put(notificationType, new Snapshot(updated));
+            resolved.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Removes listener from the type.
+     *
+     * @param notificationType
+     *            type of notification
+     * @param listener
+     *            listener to remove
+     * @return true if the listener has been removed
+     */
+    boolean remove(final Class< ? > notificationType, final NotificationListener< ? > listener) {
+        synchronized (writeLock) {
+            final Subscription[] current = getRegistered(notificationType).subscriptions;
+            final int index = indexOf(current, listener);
+            if (index < 0) {
+                return false;
+            }
+            removeAt(notificationType, current, index);
+            return true;
+        }
+    }
+
+    /**
+     * Creates weak reference to the listener, which will be purged from the
+     * registry when cleared.
+     *
+     * @param notificationType
+     *            type the listener is registered for
+     * @param listener
+     *            listener
+     * @return reference
+     */
+    Subscription.ListenerReference newReference(final Class< ? > notificationType,
+            final NotificationListener< ? > listener) {
+        return new Subscription.ListenerReference(notificationType, listener, referenceQueue);
+    }
+
+    /**
+     * Removes subscriptions of all weakly held listeners which have been
+     * garbage collected since last purge.
+     */
+    void purge() {
+        Reference< ? extends NotificationListener< ? >> reference = referenceQueue.poll();
+        while (reference != null) {
+            final Subscription.ListenerReference cleared = (Subscription.ListenerReference) reference;
+            synchronized (writeLock) {
+                final Subscription[] current = getRegistered(cleared.notificationType).subscriptions;
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i] == cleared.subscription) {
+                        removeAt(cleared.notificationType, current, i);
+                        break;
+                    }
+                }
+            }
+            reference = referenceQueue.poll();
+        }
+    }
+
+    private void removeAt(final Class< ? > notificationType, final Subscription[] current, final int index) {
+        synchronized (writeLock) {
+            if (current.length == 1) {
+                snapshots.remove(notificationType);
+            } else {
+                final Subscription[] updated = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                snapshots.put(notificationType, new Snapshot(updated));
+            }
+            resolved.clear();
+        }
+    }
+
+    private static int indexOf(final Subscription[] subscriptions, final NotificationListener< ? > listener) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (listener.equals(subscriptions[i].getListener())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
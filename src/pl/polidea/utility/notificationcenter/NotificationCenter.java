@@ -2,36 +2,87 @@ package pl.polidea.utility.notificationcenter;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import android.os.Handler;
 import android.util.Log;
 
 /**
  * Implements generic notifcation service. It has generic-ed processing of the
  * notifications send - you can register for particular class of notifications
- * to receive.
+ * to receive (listeners registered for a type receive also notifications of
+ * its subtypes, for example listener of {@link Notification} receives all of
+ * them). All methods are thread-safe. Listeners are looked up without
+ * locks (the registry is copy-on-write); emitting and dispatching only take
+ * short locks of the task pool and, in batching mode, of the dispatch queue,
+ * which are never held while listeners run. Listeners are called through
+ * {@link Dispatcher} chosen at registration - by default the one the center
+ * was created with.
  * 
  * @author potiuk
  * 
  */
 public class NotificationCenter {
     private static final String TAG = NotificationCenter.class.getSimpleName();
-    private final transient Handler handler;
+    private static final int NORMAL_PRIORITY = Priority.NORMAL.ordinal();
+    private final transient Dispatcher defaultDispatcher;
 
-    // NOTE: Here Object is needed. See Joshua Blosh's typesafe heterogeneous
-    // container pattern (Item 29) Effective Java 2nd Edition
-    private final transient Map<Class< ? extends Notification>, Object> listenerMap = new HashMap<Class< ? extends Notification>, Object>();
+    // NOTE: Listeners are kept type-erased. See Joshua Blosh's typesafe
+    // heterogeneous container pattern (Item 29) Effective Java 2nd Edition
+    private final transient ListenerRegistry registry = new ListenerRegistry();
+    private final transient DispatchTask.Pool taskPool = new DispatchTask.Pool(this);
+    private final transient ConcurrentHashMap<Class< ? >, TypePolicy> policies = new ConcurrentHashMap<Class< ? >, TypePolicy>();
 
+    private final transient Object queuesLock = new Object();
+    private final transient ConcurrentHashMap<Dispatcher, DispatchQueue> queues = new ConcurrentHashMap<Dispatcher, DispatchQueue>();
+
+    private volatile int maxPerDrain = 0;
+    private volatile int traceInterval = 0;
+    private volatile DeliveryMetrics deliveryMetrics = null;
+    private int traceCounter = 0;
+
+    /**
+     * Creates center which calls listeners on the looper thread of the
+     * creating thread (unless they choose other dispatcher).
+     */
     public NotificationCenter() {
-        handler = new Handler();
+        this(new HandlerDispatcher());
     }
 
     /**
-     * Get all listeners of the type specified.
+     * Creates center with given default dispatcher. With
+     * {@link DirectDispatcher} or {@link ExecutorDispatcher} the center does
+     * not need Android looper at all.
+     * 
+     * @param defaultDispatcher
+     *            dispatcher used by listeners which do not specify one
+     */
+    public NotificationCenter(final Dispatcher defaultDispatcher) {
+        if (defaultDispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher must not be null");
+        }
+        this.defaultDispatcher = defaultDispatcher;
+    }
+
+    /**
+     * Checks whether notification of the class emitted now would be received
+     * by any listener (including listeners registered for its supertypes) or
+     * kept as sticky. Producers emitting at high rate can use it to skip
+     * creating notifications nobody receives.
+     * 
+     * @param clazz
+     *            class of notification
+     * @return true if notification would be used
+     */
+    public boolean hasListeners(final Class< ? extends Notification> clazz) {
+        final TypePolicy policy = policies.get(clazz);
+        return policy != null && policy.sticky || registry.get(clazz).subscriptions.length > 0;
+    }
+
+    /**
+     * Get all listeners registered for the type specified (not including
+     * listeners registered for its supertypes).
      * 
      * @param <T>
      *            generic
@@ -39,24 +90,45 @@ public class NotificationCenter {
      *            type
      * @return list of listeners
      */
-    public synchronized <T extends Notification> // NOPMD
+    @SuppressWarnings("unchecked")
+    public <T extends Notification> // NOPMD
     List<NotificationListener<T>> getListeners(final Class<T> notificationType) {
-        final List<NotificationListener<T>> list = internalGetListeners(notificationType);
-        if (list == null) {
+        final Subscription[] subscriptions = registry.getRegistered(notificationType).subscriptions;
+        if (subscriptions.length == 0) {
             return Collections.emptyList();
-        } else {
-            return Collections.unmodifiableList(new LinkedList<NotificationListener<T>>(list));
         }
+        final List<NotificationListener<T>> list = new ArrayList<NotificationListener<T>>(subscriptions.length);
+        for (final Subscription subscription : subscriptions) {
+            final NotificationListener< ? > listener = subscription.getListener();
+            if (listener != null) {
+                list.add((NotificationListener<T>) listener);
+            }
+        }
+        return Collections.unmodifiableList(list);
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> List<NotificationListener<T>> internalGetListeners(final Class<T> notificationType) {
-        return (List<NotificationListener<T>>) listenerMap.get(notificationType);
+    /**
+     * Register the listener to receive objects of type <T> (including its
+     * subtypes). You typically do it in onResume of activity using it.
+     * 
+     * @param <T>
+     *            type of the object to register
+     * 
+     * @param notificationType
+     *            type of the object
+     * @param listener
+     *            listener to register
+     */
+    public <T extends Notification> // NOPMD
+    void registerListener(final Class<T> notificationType, final NotificationListener<T> listener) {
+        registerListener(notificationType, listener, defaultDispatcher);
     }
 
     /**
-     * Register the listener to receive objects of type <T>. You typically do it
-     * in onResume of activity using it.
+     * Register the listener to receive objects of type <T> through the
+     * dispatcher specified - for example on background thread. If the
+     * listener is already registered for the type, it keeps its previous
+     * dispatcher.
      * 
      * @param <T>
      *            type of the object to register
@@ -65,14 +137,151 @@ public class NotificationCenter {
      *            type of the object
      * @param listener
      *            listener to register
+     * @param dispatcher
+     *            dispatcher calling the listener
      */
-    public synchronized <T extends Notification> // NOPMD
-    void registerListener(final Class<T> notificationType, final NotificationListener<T> listener) {
-        if (!listenerMap.containsKey(notificationType)) {
-            listenerMap.put(notificationType, new ArrayList<NotificationListener<T>>());
+    public <T extends Notification> // NOPMD
+    void registerListener(final Class<T> notificationType, final NotificationListener<T> listener,
+            final Dispatcher dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher must not be null");
+        }
+        register(notificationType, new Subscription(listener, queueFor(dispatcher), null));
+    }
+
+    /**
+     * Register the listener to receive objects of type <T> accepted by the
+     * predicate. The predicate is evaluated on the emitting thread before
+     * anything is posted - if no listener accepts the notification, nothing
+     * is posted at all. The predicate must be fast, thread-safe and must not
+     * depend on state changed by the listener.
+     * 
+     * @param <T>
+     *            type of the object to register
+     * 
+     * @param notificationType
+     *            type of the object
+     * @param predicate
+     *            selects notifications the listener wants
+     * @param listener
+     *            listener to register
+     */
+    public <T extends Notification> // NOPMD
+    void registerFilteredListener(final Class<T> notificationType, final Predicate< ? super T> predicate,
+            final NotificationListener<T> listener) {
+        registerFilteredListener(notificationType, predicate, listener, defaultDispatcher);
+    }
+
+    /**
+     * Register the listener to receive objects of type <T> accepted by the
+     * predicate, through the dispatcher specified. See
+     * {@link #registerFilteredListener(Class, Predicate, NotificationListener)}.
+     * 
+     * @param <T>
+     *            type of the object to register
+     * 
+     * @param notificationType
+     *            type of the object
+     * @param predicate
+     *            selects notifications the listener wants
+     * @param listener
+     *            listener to register
+     * @param dispatcher
+     *            dispatcher calling the listener
+     */
+    public <T extends Notification> // NOPMD
+    void registerFilteredListener(final Class<T> notificationType, final Predicate< ? super T> predicate,
+            final NotificationListener<T> listener, final Dispatcher dispatcher) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("Predicate must not be null");
+        }
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher must not be null");
+        }
+        register(notificationType, new Subscription(listener, queueFor(dispatcher), predicate));
+    }
+
+    /**
+     * Register the listener weakly - the center does not keep the listener
+     * from being garbage collected. Use it for listeners owned by short-lived
+     * objects (activities), when unregistering might be forgotten. Note that
+     * the listener must be strongly referenced by its owner, anonymous
+     * listener referenced only by the center is collected almost
+     * immediately. Unregistering is still recommended.
+     * 
+     * @param <T>
+     *            type of the object to register
+     * 
+     * @param notificationType
+     *            type of the object
+     * @param listener
+     *            listener to register
+     */
+    public <T extends Notification> // NOPMD
+    void registerWeakListener(final Class<T> notificationType, final NotificationListener<T> listener) {
+        registerWeakListener(notificationType, listener, defaultDispatcher);
+    }
+
+    /**
+     * Register the listener weakly, with dispatcher specified. See
+     * {@link #registerWeakListener(Class, NotificationListener)}.
+     * 
+     * @param <T>
+     *            type of the object to register
+     * 
+     * @param notificationType
+     *            type of the object
+     * @param listener
+     *            listener to register
+     * @param dispatcher
+     *            dispatcher calling the listener
+     */
+    public <T extends Notification> // NOPMD
+    void registerWeakListener(final Class<T> notificationType, final NotificationListener<T> listener,
+            final Dispatcher dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher must not be null");
+        }
+        register(notificationType,
+                new Subscription(registry.newReference(notificationType, listener), queueFor(dispatcher)));
+    }
+
+    private void register(final Class< ? > notificationType, final Subscription subscription) {
+        registry.purge();
+        if (registry.add(notificationType, subscription)) {
+            replaySticky(notificationType, subscription);
         }
-        if (!internalGetListeners(notificationType).contains(listener)) {
-            internalGetListeners(notificationType).add(listener);
+    }
+
+    private void replaySticky(final Class< ? > notificationType, final Subscription subscription) {
+        for (final Map.Entry<Class< ? >, TypePolicy> entry : policies.entrySet()) {
+            final Notification last = entry.getValue().last;
+            if (last != null && notificationType.isAssignableFrom(entry.getKey()) && subscription.accepts(last)) {
+                final DispatchTask task = obtainTask(subscription.queue, entry.getKey().asSubclass(Notification.class),
+                        last, entry.getValue());
+                task.target = subscription;
+                subscription.queue.enqueue(task);
+            }
+        }
+    }
+
+    /**
+     * Returns queue of the dispatcher. Queues are never removed (their ids
+     * index rings of bounded types), equal dispatchers share one.
+     */
+    private DispatchQueue queueFor(final Dispatcher dispatcher) {
+        final DispatchQueue queue = queues.get(dispatcher);
+        if (queue != null) {
+            return queue;
+        }
+        synchronized (queuesLock) {
+            DispatchQueue created = queues.get(dispatcher);
+            if (created == null) {
+                created = new DispatchQueue(queues.size(), dispatcher);
+                created.setMaxPerDrain(maxPerDrain);
+                queues.put(dispatcher, created);
+            }
+            return created;
         }
     }
 
@@ -88,14 +297,258 @@ public class NotificationCenter {
      * @param listener
      *            listener to register
      */
-    public synchronized <T extends Notification> // NOPMD
+    public <T extends Notification> // NOPMD
     void unregisterListener(final Class<T> notificationType, final NotificationListener<T> listener) {
-        final List<NotificationListener<T>> list = internalGetListeners(notificationType);
-        list.remove(listener);
+        registry.remove(notificationType, listener);
+    }
+
+    /**
+     * Sets "latest value wins" delivery for the notification type. While
+     * notification of conflating type is still waiting for delivery, newly
+     * emitted notification of that type replaces the waiting one instead of
+     * being queued. Use it for high-rate types carrying complete state (like
+     * orientation or location updates), where intermediate values are of no
+     * interest once a newer one is available. Same as bounding the type to
+     * single notification with {@link OverflowPolicy#DROP_OLDEST}.
+     * 
+     * @param notificationType
+     *            type of notification
+     * @param conflating
+     *            true to conflate notifications of the type
+     */
+    public void setConflating(final Class< ? extends Notification> notificationType, final boolean conflating) {
+        setQueueBound(notificationType, conflating ? 1 : 0, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Limits number of notifications of the type waiting for delivery (per
+     * dispatcher). When the limit is reached, overflow policy decides what
+     * happens with newly emitted notification. Statistics of bounded types
+     * are available via {@link #getQueueStats(Class)}.
+     * 
+     * @param notificationType
+     *            type of notification
+     * @param capacity
+     *            maximum number of notifications waiting, 0 for unbounded
+     * @param overflow
+     *            what to do when the limit is reached
+     */
+    public void setQueueBound(final Class< ? extends Notification> notificationType, final int capacity,
+            final OverflowPolicy overflow) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        if (overflow == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+        final TypePolicy policy = getOrCreatePolicy(notificationType);
+        synchronized (policy) {
+            policy.overflow = overflow;
+            policy.capacity = capacity;
+            // wake up blocked emitters, so that they see new settings
+            policy.notifyAll();
+        }
+    }
+
+    /**
+     * Returns queue statistics of the bounded type.
+     * 
+     * @param notificationType
+     *            type of notification
+     * @return statistics (all zero for types which were never bounded)
+     */
+    public QueueStats getQueueStats(final Class< ? extends Notification> notificationType) {
+        final TypePolicy policy = policies.get(notificationType);
+        if (policy == null) {
+            return new QueueStats(0, 0, 0);
+        }
+        synchronized (policy) {
+            return new QueueStats(policy.enqueued, policy.dropped, policy.depth);
+        }
     }
 
     /**
-     * Emits notification of the type specified.
+     * Sets delivery priority of the notification type. Notifications waiting
+     * for delivery are delivered in order of priority of their types, and in
+     * emitting order within the same type. Notifications of
+     * {@link Priority#HIGH} priority are delivered ahead of everything
+     * already waiting in the dispatcher (for handler dispatcher they are
+     * posted at front of looper's queue), so use it for rare control and
+     * state-change notifications which should not wait behind flood of data.
+     * Lower priorities are only reordered in batching mode.
+     * 
+     * @param notificationType
+     *            type of notification
+     * @param priority
+     *            priority
+     */
+    public void setPriority(final Class< ? extends Notification> notificationType, final Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority must not be null");
+        }
+        getOrCreatePolicy(notificationType).priority = priority;
+    }
+
+    /**
+     * Makes the notification type sticky. The most recently emitted
+     * notification of sticky type is kept by the center (single one per type,
+     * no history) and delivered immediately to every listener registering for
+     * the type later on. This way listener registered in onResume gets
+     * current state without the producer having to emit it again. Making type
+     * non-sticky forgets the kept notification.
+     * 
+     * @param notificationType
+     *            type of notification
+     * @param sticky
+     *            true to keep the last notification of the type
+     */
+    public void setSticky(final Class< ? extends Notification> notificationType, final boolean sticky) {
+        final TypePolicy policy = getOrCreatePolicy(notificationType);
+        policy.sticky = sticky;
+        if (!sticky) {
+            policy.last = null;
+        }
+    }
+
+    /**
+     * Returns the last notification emitted of the sticky type.
+     * 
+     * @param <T>
+     *            type of notification
+     * @param notificationType
+     *            type of notification
+     * @return last notification or null if none was emitted or the type is
+     *         not sticky
+     */
+    public <T extends Notification> T getLastNotification(final Class<T> notificationType) {
+        final TypePolicy policy = policies.get(notificationType);
+        return policy == null ? null : notificationType.cast(policy.last);
+    }
+
+    /**
+     * Forgets the last notification of the sticky type (the type stays
+     * sticky). Use it when the state it carries is no longer valid.
+     * 
+     * @param notificationType
+     *            type of notification
+     */
+    public void removeLastNotification(final Class< ? extends Notification> notificationType) {
+        final TypePolicy policy = policies.get(notificationType);
+        if (policy != null) {
+            policy.last = null;
+        }
+    }
+
+    private TypePolicy getOrCreatePolicy(final Class< ? > notificationType) {
+        final TypePolicy policy = policies.get(notificationType);
+        if (policy != null) {
+            return policy;
+        }
+        final TypePolicy created = new TypePolicy();
+        final TypePolicy existing = policies.putIfAbsent(notificationType, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Switches batching dispatch mode on. Instead of posting every
+     * notification separately, emitted notifications are queued and a single
+     * drain is posted to the dispatcher, which delivers everything queued so
+     * far in emitting order. Bursts bigger than the cap are split across
+     * several looper messages so that they do not starve the UI frame.
+     * Applies to all dispatchers except {@link DirectDispatcher}, which
+     * always calls listeners before emitNotification returns.
+     * 
+     * @param maxPerDrain
+     *            maximum number of notifications delivered in one drain
+     */
+    public void enableBatching(final int maxPerDrain) {
+        if (maxPerDrain <= 0) {
+            throw new IllegalArgumentException("Max per drain must be positive: " + maxPerDrain);
+        }
+        setMaxPerDrain(maxPerDrain);
+    }
+
+    /**
+     * Switches batching dispatch mode off - every notification is posted
+     * separately (default). Notifications already queued are still delivered
+     * by the pending drain.
+     */
+    public void disableBatching() {
+        setMaxPerDrain(0);
+    }
+
+    private void setMaxPerDrain(final int maxPerDrain) {
+        synchronized (queuesLock) {
+            this.maxPerDrain = maxPerDrain;
+            for (final DispatchQueue queue : queues.values()) {
+                queue.setMaxPerDrain(maxPerDrain);
+            }
+        }
+    }
+
+    /**
+     * Sets metrics collecting delivery latency and time spent in listeners.
+     * Without metrics (default) the only cost is a single check per
+     * notification.
+     * 
+     * @param metrics
+     *            metrics to record to, null to switch recording off
+     */
+    public void setDeliveryMetrics(final DeliveryMetrics metrics) {
+        this.deliveryMetrics = metrics;
+    }
+
+    public DeliveryMetrics getDeliveryMetrics() {
+        return deliveryMetrics;
+    }
+
+    /**
+     * Returns time spent in callbacks of the listener registered for the
+     * type, recorded by current delivery metrics. The histogram is dropped
+     * together with the registration.
+     * 
+     * @param notificationType
+     *            type the listener is registered for
+     * @param listener
+     *            listener
+     * @return histogram, null if there are no metrics or the listener is not
+     *         registered for the type
+     */
+    public LatencyHistogram getListenerExecution(final Class< ? extends Notification> notificationType,
+            final NotificationListener< ? > listener) {
+        final DeliveryMetrics metrics = deliveryMetrics;
+        if (metrics == null) {
+            return null;
+        }
+        for (final Subscription subscription : registry.getRegistered(notificationType).subscriptions) {
+            if (listener.equals(subscription.getListener())) {
+                return subscription.getExecution(metrics);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Enables capturing of the stack trace of emitting site. The trace is
+     * logged when the notification is dispatched. Capturing trace is
+     * expensive, so it is switched off by default and when switched on only
+     * every n-th emit is traced.
+     * 
+     * @param sampleInterval
+     *            trace every n-th emitted notification; 0 switches tracing off
+     */
+    public void setEmitTracing(final int sampleInterval) {
+        if (sampleInterval < 0) {
+            throw new IllegalArgumentException("Sample interval must not be negative: " + sampleInterval);
+        }
+        traceCounter = 0;
+        traceInterval = sampleInterval;
+    }
+
+    /**
+     * Emits notification of the type specified. The notification is delivered
+     * to listeners registered at the time of emitting (unless they unregister
+     * before delivery).
      * 
      * @param <T>
      *            type of notification
@@ -105,21 +558,290 @@ public class NotificationCenter {
      * @param notification
      *            notification to send.
      */
-    public synchronized <T extends Notification> void emitNotification(// NOPMD
+    public <T extends Notification> void emitNotification(// NOPMD
             final Class<T> clazz, final T notification) {
-       // Log.d(TAG, "Emiting notification " + notification);
-        final Throwable t = new Throwable(); // NOPMD
-       // Log.d(TAG, "Stack trace for emitting notification:", t);
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                for (final NotificationListener<T> listener : getListeners(clazz)) {
-                  // Log.d(TAG, "Sending Notification " + notification + " to " + listener);
-                    listener.notificationReceived(notification);
-                  // Log.d(TAG, "Processe Notification " + notification + " by " + listener);
+        registry.purge();
+        final TypePolicy policy = policies.get(clazz);
+        if (policy != null && policy.sticky) {
+            policy.last = notification;
+        }
+        final ListenerRegistry.Snapshot snapshot = registry.get(clazz);
+        final DispatchQueue[] targets = snapshot.queues;
+        final boolean bounded = policy != null && policy.capacity > 0;
+        for (int i = 0; i < targets.length; i++) {
+            long acceptedMask = 0;
+            if (snapshot.filtered) {
+                acceptedMask = evaluatePredicates(snapshot, targets[i], notification);
+                if (acceptedMask == 0) {
+                    continue;
+                }
+            }
+            if (bounded) {
+                // waiting notifications of bounded types might be replaced,
+                // so predicates are evaluated again on delivery
+                enqueueBounded(policy, targets[i], clazz, notification);
+            } else {
+                final DispatchTask task = obtainTask(targets[i], clazz, notification, policy);
+                if (snapshot.filtered) {
+                    task.snapshot = snapshot;
+                    task.acceptedMask = acceptedMask;
                 }
+                targets[i].enqueue(task);
             }
-        });
+        }
+    }
+
+    /**
+     * Evaluates predicates of subscriptions using the queue. Returns bit mask
+     * of subscriptions (by index in snapshot) accepting the notification.
+     * Subscriptions beyond 64th are not recorded in the mask (they are
+     * evaluated again on delivery) - then the highest bit is set, so the
+     * result is non-zero if anyone might accept the notification.
+     */
+    private static long evaluatePredicates(final ListenerRegistry.Snapshot snapshot, final DispatchQueue queue,
+            final Notification notification) {
+        final Subscription[] subscriptions = snapshot.subscriptions;
+        long mask = 0;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].queue == queue) {
+                if (i >= Long.SIZE - 1) {
+                    mask |= Long.MIN_VALUE;
+                } else if (subscriptions[i].accepts(notification)) {
+                    mask |= 1L << i;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static boolean accepted(final DispatchTask task, final ListenerRegistry.Snapshot snapshot, final int index,
+            final Notification notification) {
+        final Subscription subscription = snapshot.subscriptions[index];
+        if (subscription.predicate == null) {
+            return true;
+        }
+        if (task.snapshot == snapshot && index < Long.SIZE - 1) {
+            return (task.acceptedMask & 1L << index) != 0;
+        }
+        // listeners changed since emitting (or no mask recorded)
+        return subscription.accepts(notification);
+    }
+
+    private void enqueueBounded(final TypePolicy policy, final DispatchQueue queue,
+            final Class< ? extends Notification> clazz, final Notification notification) {
+        synchronized (policy) {
+            final TypePolicy.Ring ring = policy.ring(queue);
+            while (policy.capacity > 0 && ring.size() >= policy.capacity) {
+                switch (policy.overflow) {
+                case DROP_OLDEST:
+                    // the task of the dropped notification delivers the new one
+                    ring.poll();
+                    ring.add(notification);
+                    policy.enqueued++;
+                    policy.dropped++;
+                    return;
+                case DROP_NEWEST:
+                    policy.dropped++;
+                    return;
+                case REJECT:
+                    policy.dropped++;
+                    throw new IllegalStateException("Too many notifications of " + clazz.getName() + " waiting");
+                case BLOCK:
+                default:
+                    try {
+                        policy.wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        policy.dropped++;
+                        return;
+                    }
+                }
+            }
+            ring.add(notification);
+            policy.enqueued++;
+            policy.depth++;
+            final DispatchTask task = obtainTask(queue, clazz, null, policy);
+            task.policy = policy;
+            queue.enqueue(task);
+        }
+    }
+
+    private DispatchTask obtainTask(final DispatchQueue queue, final Class< ? extends Notification> clazz,
+            final Notification notification, final TypePolicy policy) {
+        final DispatchTask task = taskPool.obtain();
+        task.queue = queue;
+        task.type = clazz;
+        task.notification = notification;
+        task.priority = policy == null ? NORMAL_PRIORITY : policy.priority.ordinal();
+        if (traceInterval > 0) {
+            task.emitTrace = sampleEmitTrace();
+        }
+        if (deliveryMetrics != null) {
+            task.emitNanos = System.nanoTime();
+        }
+        return task;
+    }
+
+    private Throwable sampleEmitTrace() {
+        // counter is not atomic on purpose - sampling does not need to be exact
+        if (++traceCounter < traceInterval) {
+            return null;
+        }
+        traceCounter = 0;
+        return new Throwable("Emitted from"); // NOPMD
+    }
+
+    /**
+     * Delivers notification carried by the task to the current listeners of
+     * its type which use queue of the task.
+     * 
+     * @param task
+     *            task to deliver
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void deliver(final DispatchTask task) {
+        final Notification notification;
+        if (task.policy == null) {
+            notification = task.notification;
+        } else {
+            synchronized (task.policy) {
+                notification = task.policy.ring(task.queue).poll();
+                if (notification == null) {
+                    return;
+                }
+                task.policy.depth--;
+                task.policy.notifyAll();
+            }
+        }
+        if (task.emitTrace != null) {
+            Log.d(TAG, "Stack trace for emitting notification " + notification, task.emitTrace);
+        }
+        final DeliveryMetrics metrics = deliveryMetrics;
+        if (metrics != null && task.emitNanos != 0) {
+            metrics.recordLatency(task.type, System.nanoTime() - task.emitNanos);
+        }
+        if (task.target != null) {
+            final NotificationListener listener = task.target.getListener();
+            if (listener != null) {
+                callListener(metrics, task.type, task.target, listener, notification);
+            }
+            return;
+        }
+        final ListenerRegistry.Snapshot snapshot = registry.get(task.type);
+        final Subscription[] subscriptions = snapshot.subscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].queue == task.queue && accepted(task, snapshot, i, notification)) {
+                final NotificationListener listener = subscriptions[i].getListener();
+                if (listener != null) {
+                    callListener(metrics, task.type, subscriptions[i], listener, notification);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void callListener(final DeliveryMetrics metrics, final Class< ? extends Notification> type,
+            final Subscription subscription, final NotificationListener listener, final Notification notification) {
+        if (metrics == null) {
+            listener.notificationReceived(notification);
+        } else {
+            final long start = System.nanoTime();
+            listener.notificationReceived(notification);
+            metrics.recordExecution(type, subscription, listener, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Delivery priority of notification type.
+     */
+    public enum Priority {
+        /**
+         * Delivered after everything else waiting in the same batch.
+         */
+        LOW,
+        /**
+         * Default priority.
+         */
+        NORMAL,
+        /**
+         * Delivered before everything else waiting for the dispatcher.
+         */
+        HIGH
+    }
+
+    /**
+     * What to do with notification emitted when maximum number of
+     * notifications of its type is already waiting for delivery.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest notification waiting and queue the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the new notification.
+         */
+        DROP_NEWEST,
+        /**
+         * Block emitting thread until there is room for the notification.
+         * Never use it when emitting on the thread of the dispatcher of the
+         * type - it would block forever.
+         */
+        BLOCK,
+        /**
+         * Throw IllegalStateException from emitNotification.
+         */
+        REJECT
+    }
+
+    /**
+     * Queue statistics of single notification type.
+     */
+    public static final class QueueStats {
+        private final long enqueued;
+        private final long dropped;
+        private final int depth;
+
+        public QueueStats(final long enqueued, final long dropped, final int depth) {
+            this.enqueued = enqueued;
+            this.dropped = dropped;
+            this.depth = depth;
+        }
+
+        /**
+         * @return number of notifications accepted for delivery
+         */
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        /**
+         * @return number of notifications dropped or rejected
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return number of notifications currently waiting for delivery
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "QueueStats: enqueued = " + enqueued + ", dropped = " + dropped + ", depth = " + depth;
+        }
+    }
+
+    /**
+     * Selects notifications listener is interested in.
+     * 
+     * @param <T>
+     */
+    public interface Predicate<T> {
+        boolean apply(T notification);
     }
 
     /**
@@ -0,0 +1,19 @@
+package pl.polidea.utility.notificationcenter;
+
+/**
+ * Dispatcher able to run task ahead of the tasks already waiting. Used for
+ * notification types of {@link NotificationCenter.Priority#HIGH} priority.
+ * Dispatchers not implementing it run high priority tasks in normal order
+ * (but still ahead of lower priorities waiting in the same batch).
+ * 
+ */
+public interface PriorityDispatcher extends Dispatcher {
+
+    /**
+     * Runs the task before tasks already waiting.
+     * 
+     * @param task
+     *            task to run
+     */
+    void dispatchAtFront(Runnable task);
+}
@@ -0,0 +1,128 @@
+package pl.polidea.utility.notificationcenter;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Predicate;
+
+/**
+ * Single registration of listener - the listener together with the queue it
+ * receives notifications through and optional predicate selecting the
+ * notifications it is interested in. The listener is held either strongly or
+ * weakly - in the latter case it might disappear at any time and
+ * {@link #getListener()} returns null.
+ * 
+ */
+final class Subscription {
+    private final NotificationListener< ? > listener;
+    private final ListenerReference reference;
+    final DispatchQueue queue;
+    final Predicate< ? > predicate;
+    private volatile Execution execution;
+
+    /**
+     * Time spent in the listener, recorded for the metrics. Kept with the
+     * subscription rather than in the metrics, so that it goes away when the
+     * listener is unregistered or collected.
+     */
+    private static final class Execution {
+        final DeliveryMetrics metrics;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Execution(final DeliveryMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Weak reference to listener, which remembers the subscription it belongs
+     * to, so that the subscription can be purged once reference is cleared.
+     */
+    static final class ListenerReference extends WeakReference<NotificationListener< ? >> {
+        final Class< ? > notificationType;
+        Subscription subscription;
+
+        ListenerReference(final Class< ? > notificationType, final NotificationListener< ? > listener,
+                final ReferenceQueue< ? super NotificationListener< ? >> referenceQueue) {
+            super(listener, referenceQueue);
+            this.notificationType = notificationType;
+        }
+    }
+
+    /**
+     * Creates strong subscription.
+     * 
+     * @param listener
+     *            listener
+     * @param queue
+     *            queue
+     * @param predicate
+     *            predicate or null if the listener wants all notifications
+     */
+    Subscription(final NotificationListener< ? > listener, final DispatchQueue queue, final Predicate< ? > predicate) {
+        this.listener = listener;
+        this.reference = null;
+        this.queue = queue;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Creates weak subscription.
+     * 
+     * @param reference
+     *            reference to the listener
+     * @param queue
+     *            queue
+     */
+    Subscription(final ListenerReference reference, final DispatchQueue queue) {
+        this.listener = null;
+        this.reference = reference;
+        this.queue = queue;
+        this.predicate = null;
+        reference.subscription = this;
+    }
+
+    /**
+     * Returns the listener.
+     * 
+     * @return listener or null if weakly held listener has been collected
+     */
+    NotificationListener< ? > getListener() {
+        return reference == null ? listener : reference.get();
+    }
+
+    /**
+     * Returns time spent in the listener recorded for the metrics - recording
+     * starts from scratch when other metrics are set.
+     * 
+     * @param metrics
+     *            metrics
+     * @return histogram
+     */
+    LatencyHistogram getExecution(final DeliveryMetrics metrics) {
+        Execution current = execution;
+        if (current == null || current.metrics != metrics) {
+            synchronized (this) {
+                current = execution;
+                if (current == null || current.metrics != metrics) {
+                    current = new Execution(metrics);
+                    execution = current;
+                }
+            }
+        }
+        return current.histogram;
+    }
+
+    /**
+     * Checks if the subscription wants the notification.
+     * 
+     * @param notification
+     *            notification
+     * @return true if there is no predicate or the predicate accepts it
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    boolean accepts(final Notification notification) {
+        return predicate == null || ((Predicate) predicate).apply(notification);
+    }
+}
@@ -0,0 +1,86 @@
+package pl.polidea.utility.notificationcenter;
+
+import pl.polidea.utility.notificationcenter.NotificationCenter.OverflowPolicy;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Priority;
+
+/**
+ * Delivery settings of single notification type. Only types which were
+ * configured have policy - all the others use default delivery.
+ * <p>
+ * Bounded types keep their waiting notifications in a ring per queue instead
+ * of in the tasks. Every task takes the oldest notification of the ring when
+ * run, so dropping the oldest notification does not leave stale task in the
+ * dispatcher and the number of tasks waiting never exceeds the capacity.
+ * All the fields except the volatile ones are guarded by the policy itself.
+ *
+ */
+final class TypePolicy {
+    volatile boolean sticky;
+    volatile Priority priority = Priority.NORMAL;
+
+    /**
+     * Last notification emitted of sticky type.
+     */
+    volatile Notification last;
+
+    /**
+     * Maximum number of notifications waiting per queue, 0 for unbounded.
+     */
+    volatile int capacity;
+    volatile OverflowPolicy overflow = OverflowPolicy.DROP_OLDEST;
+
+    long enqueued;
+    long dropped;
+    int depth;
+
+    private Ring[] rings = new Ring[0];
+
+    /**
+     * Simple growable ring of notifications.
+     */
+    static final class Ring {
+        private Notification[] items = new Notification[2];
+        private int head;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void add(final Notification notification) {
+            if (size == items.length) {
+                final Notification[] grown = new Notification[items.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = items[(head + i) % items.length];
+                }
+                items = grown;
+                head = 0;
+            }
+            items[(head + size) % items.length] = notification;
+            size++;
+        }
+
+        Notification poll() {
+            if (size == 0) {
+                return null;
+            }
+            final Notification notification = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            size--;
+            return notification;
+        }
+    }
+
+    Ring ring(final DispatchQueue queue) {
+        if (queue.id >= rings.length) {
+            final Ring[] grown = new Ring[queue.id + 1];
+            System.arraycopy(rings, 0, grown, 0, rings.length);
+            rings = grown;
+        }
+        if (rings[queue.id] == null) {
+            rings[queue.id] = new Ring();
+        }
+        return rings[queue.id];
+    }
+}
@@ -0,0 +1,240 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Transport over broadcast ring buffer in memory-mapped file. Single process
+ * writes frames, any number of processes read them - every reader keeps its
+ * own read position, so readers do not influence each other nor the writer.
+ * The writer never waits: reader which falls behind by more than the ring
+ * capacity loses the overwritten frames (see {@link #getOverruns()}). For
+ * two-way communication use two files.
+ * <p>
+ * Layout: 64 bytes of header (magic, version, capacity, write position,
+ * reserved position),
+ * followed by data area of capacity bytes (power of two). Each frame is
+ * length (int, including the 8 bytes of frame header), type id (int) and
+ * payload, aligned to 8 bytes. Frame which would not fit before end of data
+ * area is preceded by padding frame filling the rest of it. Write position
+ * grows monotonically, index in data area is position modulo capacity.
+ * <p>
+ * Writer announces the end of the frame it is about to write in reserved
+ * position, writes the frame and publishes it by updating write position.
+ * Reader copies the frame and checks afterwards against reserved position
+ * that the writer did not start overwriting it in the meantime - checking
+ * write position would miss the frame being written. Both sides separate
+ * the two steps with a memory fence (volatile write followed by volatile
+ * read), which the VM implements with hardware barriers, valid also for
+ * memory shared between processes.
+ * 
+ */
+public class MappedRingTransport implements NotificationTransport, Closeable {
+    private static final int MAGIC = 0x504e5242;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_POSITION_OFFSET = 16;
+    private static final int RESERVED_POSITION_OFFSET = 24;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int PADDING_TYPE = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final ByteBuffer frameCopy;
+    private final int capacity;
+    private final int mask;
+
+    private long writePosition;
+    private long readPosition;
+    private long overruns;
+
+    private volatile int fence;
+
+    /**
+     * Opens (and if needed creates) ring in the file. All processes using
+     * the file must use the same capacity. Reading starts at frames written
+     * after opening.
+     * 
+     * @param path
+     *            file (on Android use file in app's private directory)
+     * @param capacity
+     *            size of data area, power of two
+     * @throws IOException
+     *             when file cannot be mapped
+     */
+    public MappedRingTransport(final File path, final int capacity) throws IOException {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be power of two not lower than 64: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        file = new RandomAccessFile(path, "rw");
+        try {
+            final long size = HEADER_SIZE + capacity;
+            if (file.length() < size) {
+                file.setLength(size);
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            initHeader();
+        } catch (final IOException e) {
+            file.close();
+            throw e;
+        } catch (final RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        writeView = buffer.duplicate();
+        readView = buffer.duplicate();
+        frameCopy = ByteBuffer.allocate(capacity / 2);
+        writePosition = getPosition(WRITE_POSITION_OFFSET);
+        readPosition = writePosition;
+    }
+
+    private void initHeader() {
+        // first process opening the file writes the header; there is no lock
+        // across processes, so open the writing side first
+        if (buffer.getInt(MAGIC_OFFSET) == 0) {
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(WRITE_POSITION_OFFSET, 0);
+            buffer.putLong(RESERVED_POSITION_OFFSET, 0);
+            fence();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+        } else if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IllegalStateException("Not a notification ring file");
+        } else if (buffer.getInt(CAPACITY_OFFSET) != capacity) {
+            throw new IllegalStateException("Ring capacity is " + buffer.getInt(CAPACITY_OFFSET) + " not " + capacity);
+        }
+    }
+
+    private void fence() {
+        fence = 0;
+        if (fence != 0) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private long getPosition(final int offset) {
+        // 64-bit reads might tear on 32-bit devices, repeat until stable
+        long position = buffer.getLong(offset);
+        long check = buffer.getLong(offset);
+        while (position != check) {
+            position = check;
+            check = buffer.getLong(offset);
+        }
+        return position;
+    }
+
+    private boolean isOverwritten() {
+        // slot of position p is rewritten when the writer reaches p + capacity
+        return getPosition(RESERVED_POSITION_OFFSET) - readPosition > capacity;
+    }
+
+    private static int align(final int length) {
+        return (length + 7) & ~7;
+    }
+
+    @Override
+    public synchronized void send(final int typeId, final ByteBuffer payload) {
+        if (typeId < 0) {
+            throw new IllegalArgumentException("Type id must not be negative: " + typeId);
+        }
+        final int length = FRAME_HEADER_SIZE + payload.remaining();
+        final int aligned = align(length);
+        if (aligned > capacity / 2) {
+            throw new IllegalArgumentException("Frame too big: " + length);
+        }
+        long position = writePosition;
+        int index = (int) (position & mask);
+        final int padding = index + aligned > capacity ? capacity - index : 0;
+        buffer.putLong(RESERVED_POSITION_OFFSET, position + padding + aligned);
+        fence();
+        if (padding > 0) {
+            buffer.putInt(HEADER_SIZE + index, padding);
+            buffer.putInt(HEADER_SIZE + index + 4, PADDING_TYPE);
+            position += padding;
+            index = 0;
+        }
+        buffer.putInt(HEADER_SIZE + index, length);
+        buffer.putInt(HEADER_SIZE + index + 4, typeId);
+        writeView.clear();
+        writeView.position(HEADER_SIZE + index + FRAME_HEADER_SIZE);
+        writeView.put(payload);
+        writePosition = position + aligned;
+        fence();
+        buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    @Override
+    public synchronized int receive(final FrameHandler handler, final int maxFrames) {
+        int count = 0;
+        while (count < maxFrames) {
+            fence();
+            final long available = getPosition(WRITE_POSITION_OFFSET);
+            if (readPosition == available) {
+                break;
+            }
+            if (available < readPosition || isOverwritten()) {
+                skipTo(available);
+                continue;
+            }
+            final int index = (int) (readPosition & mask);
+            final int length = buffer.getInt(HEADER_SIZE + index);
+            final int typeId = buffer.getInt(HEADER_SIZE + index + 4);
+            if (length < FRAME_HEADER_SIZE || align(length) > capacity / 2 || index + length > capacity) {
+                skipTo(available);
+                continue;
+            }
+            frameCopy.clear();
+            if (typeId != PADDING_TYPE) {
+                readView.limit(HEADER_SIZE + index + length);
+                readView.position(HEADER_SIZE + index + FRAME_HEADER_SIZE);
+                frameCopy.put(readView);
+                readView.clear();
+            }
+            frameCopy.flip();
+            fence();
+            // the writer might have overwritten the frame while we copied it
+            if (isOverwritten()) {
+                skipTo(getPosition(WRITE_POSITION_OFFSET));
+                continue;
+            }
+            readPosition += align(length);
+            if (typeId != PADDING_TYPE) {
+                handler.frameReceived(typeId, frameCopy);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void skipTo(final long position) {
+        overruns++;
+        readPosition = position;
+    }
+
+    /**
+     * Returns number of times this reader fell behind the writer by more
+     * than capacity and lost frames.
+     * 
+     * @return number of overruns
+     */
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
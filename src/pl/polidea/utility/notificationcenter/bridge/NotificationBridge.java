@@ -0,0 +1,227 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import pl.polidea.utility.notificationcenter.DirectDispatcher;
+import pl.polidea.utility.notificationcenter.Notification;
+import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.NotificationListener;
+import android.util.Log;
+
+/**
+ * Connects notification center with notification centers in other processes.
+ * Notifications of forwarded types emitted in this process are encoded and
+ * sent through the transport. Frames of accepted types received from the
+ * transport are decoded and emitted in this process. Typically the process
+ * collecting sensor data forwards the types and UI processes accept them, so
+ * single sensor and GPS session feeds all of them.
+ * <p>
+ * Notifications received are not forwarded back, so the same type can be
+ * both forwarded and accepted. This holds for all bridges of the center: with
+ * one-way transports two-way setup needs separate bridges for inbound and
+ * outbound frames, and notification received by one of them is not forwarded
+ * by the other.
+ * 
+ */
+public class NotificationBridge {
+    private static final String TAG = NotificationBridge.class.getSimpleName();
+    private static final int MAX_FRAME_SIZE = 4096;
+    private static final int FRAMES_PER_POLL = 64;
+
+    /**
+     * Notification center into which the current thread emits received
+     * notifications, shared by all bridges.
+     */
+    private static final ThreadLocal<NotificationCenter> RECEIVING = new ThreadLocal<NotificationCenter>();
+
+    private final NotificationCenter notificationCenter;
+    private final NotificationTransport transport;
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(MAX_FRAME_SIZE);
+    private final List<Forward< ? >> forwards = new ArrayList<Forward< ? >>();
+
+    private volatile Accept< ? >[] accepts = new Accept< ? >[0];
+    private Thread pollingThread;
+
+    private final NotificationTransport.FrameHandler frameHandler = new NotificationTransport.FrameHandler() {
+        @Override
+        public void frameReceived(final int typeId, final ByteBuffer payload) {
+            final Accept< ? >[] current = accepts;
+            if (typeId < current.length && current[typeId] != null) {
+                current[typeId].emit(payload);
+            }
+        }
+    };
+
+    /**
+     * Type forwarded to other processes.
+     */
+    private final class Forward<T extends Notification> implements NotificationListener<T> {
+        private final Class<T> type;
+        private final int typeId;
+        private final NotificationCodec<T> codec;
+
+        Forward(final Class<T> type, final int typeId, final NotificationCodec<T> codec) {
+            this.type = type;
+            this.typeId = typeId;
+            this.codec = codec;
+        }
+
+        @Override
+        public void notificationReceived(final T notification) {
+            if (RECEIVING.get() == notificationCenter) {
+                return;
+            }
+            synchronized (encodeBuffer) {
+                encodeBuffer.clear();
+                codec.encode(notification, encodeBuffer);
+                encodeBuffer.flip();
+                transport.send(typeId, encodeBuffer);
+            }
+        }
+    }
+
+    /**
+     * Type accepted from other processes.
+     */
+    private final class Accept<T extends Notification> {
+        private final Class<T> type;
+        private final NotificationCodec<T> codec;
+
+        Accept(final Class<T> type, final NotificationCodec<T> codec) {
+            this.type = type;
+            this.codec = codec;
+        }
+
+        void emit(final ByteBuffer payload) {
+            notificationCenter.emitNotification(type, codec.decode(payload));
+        }
+    }
+
+    public NotificationBridge(final NotificationCenter notificationCenter, final NotificationTransport transport) {
+        this.notificationCenter = notificationCenter;
+        this.transport = transport;
+    }
+
+    /**
+     * Starts forwarding notifications of the type to other processes.
+     * 
+     * @param <T>
+     *            type of notification
+     * @param type
+     *            type of notification
+     * @param typeId
+     *            id of the type on the wire, must be the same in all
+     *            processes (small non-negative number)
+     * @param codec
+     *            codec of the type
+     */
+    public synchronized <T extends Notification> void forward(final Class<T> type, final int typeId,
+            final NotificationCodec<T> codec) {
+        checkTypeId(typeId);
+        final Forward<T> forward = new Forward<T>(type, typeId, codec);
+        forwards.add(forward);
+        notificationCenter.registerListener(type, forward, DirectDispatcher.INSTANCE);
+    }
+
+    /**
+     * Starts emitting notifications of the type received from other
+     * processes.
+     * 
+     * @param <T>
+     *            type of notification
+     * @param type
+     *            type of notification
+     * @param typeId
+     *            id of the type on the wire, must be the same in all
+     *            processes (small non-negative number)
+     * @param codec
+     *            codec of the type
+     */
+    public synchronized <T extends Notification> void accept(final Class<T> type, final int typeId,
+            final NotificationCodec<T> codec) {
+        checkTypeId(typeId);
+        final Accept< ? >[] current = accepts;
+        final Accept< ? >[] updated = new Accept< ? >[Math.max(current.length, typeId + 1)];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[typeId] = new Accept<T>(type, codec);
+        accepts = updated;
+    }
+
+    private static void checkTypeId(final int typeId) {
+        if (typeId < 0 || typeId > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Type id out of range: " + typeId);
+        }
+    }
+
+    /**
+     * Receives frames waiting in the transport and emits them on calling
+     * thread.
+     * 
+     * @param maxFrames
+     *            maximum number of frames processed
+     * @return number of frames processed
+     */
+    public int poll(final int maxFrames) {
+        final NotificationCenter previous = RECEIVING.get();
+        RECEIVING.set(notificationCenter);
+        try {
+            return transport.receive(frameHandler, maxFrames);
+        } finally {
+            RECEIVING.set(previous);
+        }
+    }
+
+    /**
+     * Starts background thread polling the transport.
+     * 
+     * @param idleMillis
+     *            how long the thread sleeps when there was nothing to receive
+     */
+    public synchronized void startPolling(final long idleMillis) {
+        if (pollingThread != null) {
+            return;
+        }
+        pollingThread = new Thread(TAG) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        if (poll(FRAMES_PER_POLL) == 0) {
+                            Thread.sleep(idleMillis);
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    Log.d(TAG, "Polling stopped");
+                }
+            }
+        };
+        pollingThread.setDaemon(true);
+        pollingThread.start();
+    }
+
+    /**
+     * Stops polling thread.
+     */
+    public synchronized void stopPolling() {
+        if (pollingThread != null) {
+            pollingThread.interrupt();
+            pollingThread = null;
+        }
+    }
+
+    /**
+     * Stops forwarding and receiving notifications. The transport is not
+     * closed.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public synchronized void close() {
+        stopPolling();
+        for (final Forward forward : forwards) {
+            notificationCenter.unregisterListener(forward.type, forward);
+        }
+        forwards.clear();
+        accepts = new Accept< ? >[0];
+    }
+}
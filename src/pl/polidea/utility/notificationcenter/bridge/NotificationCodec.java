@@ -0,0 +1,33 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import java.nio.ByteBuffer;
+
+import pl.polidea.utility.notificationcenter.Notification;
+
+/**
+ * Converts notifications of single type to compact binary form and back.
+ * 
+ * @param <T>
+ *            type of notification
+ */
+public interface NotificationCodec<T extends Notification> {
+
+    /**
+     * Writes the notification to the buffer (at its position).
+     * 
+     * @param notification
+     *            notification to write
+     * @param out
+     *            buffer to write to
+     */
+    void encode(T notification, ByteBuffer out);
+
+    /**
+     * Reads notification from the buffer (from position to limit).
+     * 
+     * @param in
+     *            buffer to read from
+     * @return notification
+     */
+    T decode(ByteBuffer in);
+}
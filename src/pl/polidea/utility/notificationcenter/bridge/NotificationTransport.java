@@ -0,0 +1,41 @@
+package pl.polidea.utility.notificationcenter.bridge;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Moves binary frames (type id and payload) between processes.
+ * 
+ */
+public interface NotificationTransport {
+
+    /**
+     * Receives frames read by the transport. Payload is valid only during the
+     * call.
+     */
+    interface FrameHandler {
+        void frameReceived(int typeId, ByteBuffer payload);
+    }
+
+    /**
+     * Sends frame. Payload between position and limit of the buffer is sent
+     * (the buffer is consumed).
+     * 
+     * @param typeId
+     *            type of the frame (non-negative)
+     * @param payload
+     *            payload
+     */
+    void send(int typeId, ByteBuffer payload);
+
+    /**
+     * Receives frames sent since the last call (at most maxFrames), passing
+     * them to the handler on calling thread. Does not block.
+     * 
+     * @param handler
+     *            handler of frames
+     * @param maxFrames
+     *            maximum number of frames received
+     * @return number of frames received
+     */
+    int receive(FrameHandler handler, int maxFrames);
+}
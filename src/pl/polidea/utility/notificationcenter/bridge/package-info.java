@@ -0,0 +1,5 @@
+/**
+ * Bridge forwarding notifications between notification centers of different
+ * processes over shared memory.
+ */
+package pl.polidea.utility.notificationcenter.bridge;
@@ -1,9 +1,13 @@
 package pl.polidea.utility.sensors;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import pl.polidea.utility.notificationcenter.Notification;
 import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Priority;
+import pl.polidea.utility.sensors.estimator.KalmanLocationEstimator;
+import pl.polidea.utility.sensors.estimator.LocationEstimator;
 import android.content.Context;
 import android.location.Location;
 import android.location.LocationListener;
@@ -23,7 +27,15 @@ import android.util.Log;
  * registering/unregistering are avoided. Note! location notification might not
  * come immediately after starting collecting it, so in onResume one should
  * either read the last notification or force next update to be emitted by
- * forceNextLocationChange.
+ * forceNextLocationChange. Alternatively make
+ * {@link LocationChangedNotification} sticky with
+ * {@link NotificationCenter#setSticky(Class, boolean)} - listeners then
+ * receive the last location as soon as they register, without waking up the
+ * provider. {@link LocationChangedNotification} carries the best location,
+ * so it can be made conflating with
+ * {@link NotificationCenter#setConflating(Class, boolean)}. Best location is
+ * computed by {@link LocationEstimator} - by default
+ * {@link KalmanLocationEstimator} fusing fixes of all providers.
  * 
  * @author potiuk
  * 
@@ -72,6 +84,68 @@ public class LocationCenter {
         }
     }
 
+    /**
+     * Client of the center - providers are requested while sessions needing
+     * them are open.
+     * 
+     */
+    public final class Session {
+        private final int type;
+        private long minTime;
+        private float minDistance;
+        private boolean open = true;
+
+        Session(final int type, final long minTime, final float minDistance) {
+            this.type = type;
+            this.minTime = minTime;
+            this.minDistance = minDistance;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Changes hints of the session.
+         * 
+         * @param minTime
+         *            minimum time between updates (hint)
+         * @param minDistance
+         *            minimum distance between updates (hint)
+         */
+        public void update(final long minTime, final float minDistance) {
+            synchronized (sessionsLock) {
+                this.minTime = minTime;
+                this.minDistance = minDistance;
+                if (open) {
+                    updateRequests();
+                }
+            }
+        }
+
+        /**
+         * Closes the session. Further calls do nothing.
+         */
+        public void release() {
+            synchronized (sessionsLock) {
+                if (open) {
+                    open = false;
+                    sessions.remove(this);
+                    updateRequests();
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives locations delivered by providers before they are processed -
+     * for example to record them.
+     * 
+     */
+    public interface FixListener {
+        void fixReceived(int type, Location location);
+    }
+
     private static final String TAG = LocationCenter.class.getSimpleName();
 
     /**
@@ -89,14 +163,26 @@ public class LocationCenter {
 
     private static final int LOCATION_UPDATE_TIMEOUT = 1125;
 
-    private final Context context;
+    private final LocationManager locationManager;
+    private final boolean gpsProviderSupported;
+    private final boolean networkProviderSupported;
 
     private Location lastLocationGPS = null;
     private Location lastLocationNet = null;
-    private Location bestLocationYet = null;
-    private boolean gpsProviderEnabled;
-    private boolean networkProviderEnabled;
-    private boolean forceNextChange = false;
+    private volatile LocationEstimator estimator = new KalmanLocationEstimator();
+    // seeded at construction, kept up to date by provider callbacks
+    private volatile boolean gpsProviderEnabled;
+    private volatile boolean networkProviderEnabled;
+    private volatile boolean forceNextChange = false;
+    private volatile FixListener fixListener;
+
+    private final Object sessionsLock = new Object();
+    private final List<Session> sessions = new ArrayList<Session>();
+    private final Session[] defaultSessions = new Session[SOURCETYPE_ANY + 1];
+    // merged requests per provider (indexed by SOURCETYPE_NET/GPS)
+    private final boolean[] requested = new boolean[SOURCETYPE_GPS + 1];
+    private final long[] requestedMinTime = new long[SOURCETYPE_GPS + 1];
+    private final float[] requestedMinDistance = new float[SOURCETYPE_GPS + 1];
 
     private final NotificationCenter notificationCenter;
 
@@ -115,8 +201,7 @@ public class LocationCenter {
         @Override
         public void onLocationChanged(final Location location) {
             Log.i(TAG, "location update(GPS): " + location);
-            lastLocationGPS = location;
-            pushLocation(location);
+            locationReceived(SOURCETYPE_GPS, location);
         }
 
         @Override
@@ -149,8 +234,7 @@ public class LocationCenter {
         @Override
         public void onLocationChanged(final Location location) {
             Log.i(TAG, "location update(Net): " + location);
-            lastLocationNet = location;
-            pushLocation(location);
+            locationReceived(SOURCETYPE_NET, location);
         }
 
         @Override
@@ -180,8 +264,19 @@ public class LocationCenter {
     };
 
     public LocationCenter(final Context context, final NotificationCenter notificationCenter) {
-        this.context = context;
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        final List<String> providers = locationManager.getAllProviders();
+        gpsProviderSupported = providers != null && providers.contains(LocationManager.GPS_PROVIDER);
+        networkProviderSupported = providers != null && providers.contains(LocationManager.NETWORK_PROVIDER);
+        final List<String> enabledProviders = locationManager.getProviders(true);
+        gpsProviderEnabled = enabledProviders != null && enabledProviders.contains(LocationManager.GPS_PROVIDER);
+        networkProviderEnabled = enabledProviders != null
+                && enabledProviders.contains(LocationManager.NETWORK_PROVIDER);
         this.notificationCenter = notificationCenter;
+        // state changes should not wait behind location updates
+        notificationCenter.setPriority(LocationProviderDisabledNotification.class, Priority.HIGH);
+        notificationCenter.setPriority(LocationProviderEnabledNotification.class, Priority.HIGH);
+        notificationCenter.setPriority(LocationTimeoutNotification.class, Priority.HIGH);
     }
 
     /**
@@ -213,55 +308,57 @@ public class LocationCenter {
      * @return true if the type supported (or any supported in case ANY used)
      */
     public boolean isProviderSupported(final int type) {
-        final LocationManager mgr = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
-        final List<String> providers = mgr.getAllProviders();
-        if (providers != null) {
-            switch (type) {
-            case SOURCETYPE_NET: // NOPMD
-                return providers.contains(LocationManager.NETWORK_PROVIDER);
-            case SOURCETYPE_GPS:
-                return providers.contains(LocationManager.GPS_PROVIDER);
-            case SOURCETYPE_ANY:
-                return providers.contains(LocationManager.NETWORK_PROVIDER)
-                        || providers.contains(LocationManager.GPS_PROVIDER);
-            default:
-                return providers.contains(LocationManager.NETWORK_PROVIDER)
-                        || providers.contains(LocationManager.GPS_PROVIDER);
-            }
+        switch (type) {
+        case SOURCETYPE_NET: // NOPMD
+            return networkProviderSupported;
+        case SOURCETYPE_GPS:
+            return gpsProviderSupported;
+        case SOURCETYPE_ANY:
+            return networkProviderSupported || gpsProviderSupported;
+        default:
+            return networkProviderSupported || gpsProviderSupported;
         }
-        return false;
     }
 
     /**
-     * Checks if provider of the type specified is enabled.
+     * Checks if provider of the type specified is enabled. While the provider
+     * is requested its state is kept up to date by provider callbacks, so the
+     * check does not call location service; otherwise the service is asked.
      * 
      * @param type
      *            one of SOURCETYPE_*
      * @return true if the type is enabled (or any enabled in case ANY used)
      */
     public boolean isProviderEnabled(final int type) {
-        final LocationManager mgr = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
-        final List<String> providers = mgr.getProviders(true);
-        if (providers != null) {
-            switch (type) {
-            case SOURCETYPE_NET: // NOPMD
-                return providers.contains(LocationManager.NETWORK_PROVIDER);
-            case SOURCETYPE_GPS:
-                return providers.contains(LocationManager.GPS_PROVIDER);
-            case SOURCETYPE_ANY:
-                return providers.contains(LocationManager.NETWORK_PROVIDER)
-                        || providers.contains(LocationManager.GPS_PROVIDER);
-            default:
-                return providers.contains(LocationManager.NETWORK_PROVIDER)
-                        || providers.contains(LocationManager.GPS_PROVIDER);
+        switch (type) {
+        case SOURCETYPE_NET: // NOPMD
+            return isProviderEnabled(SOURCETYPE_NET, LocationManager.NETWORK_PROVIDER);
+        case SOURCETYPE_GPS:
+            return isProviderEnabled(SOURCETYPE_GPS, LocationManager.GPS_PROVIDER);
+        case SOURCETYPE_ANY:
+            return isProviderEnabled(SOURCETYPE_NET, LocationManager.NETWORK_PROVIDER)
+                    || isProviderEnabled(SOURCETYPE_GPS, LocationManager.GPS_PROVIDER);
+        default:
+            return isProviderEnabled(SOURCETYPE_NET, LocationManager.NETWORK_PROVIDER)
+                    || isProviderEnabled(SOURCETYPE_GPS, LocationManager.GPS_PROVIDER);
+        }
+    }
+
+    private boolean isProviderEnabled(final int type, final String provider) {
+        synchronized (sessionsLock) {
+            if (requested[type]) {
+                return type == SOURCETYPE_GPS ? gpsProviderEnabled : networkProviderEnabled;
             }
         }
-        return false;
+        // no callbacks are received for provider which is not requested
+        return locationManager.isProviderEnabled(provider);
     }
 
     /**
      * Start collecting location information. This should typically be run in
-     * onResume of activity using it.
+     * onResume of activity using it. Calling it again for the same type
+     * changes the hints. Use {@link #openSession(int, long, float)} when
+     * several independent clients use the center.
      * 
      * @param type
      *            type of the location information
@@ -271,108 +368,191 @@ public class LocationCenter {
      *            minimum distance between updates (hint)
      */
     public void startCollecting(final int type, final long minTime, final float minDistance) {
-        final LocationManager mgr = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
         Log.i(TAG, "startCollecting: " + type);
-        switch (type) {
-        case SOURCETYPE_NET:
-            mgr.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, minTime, minDistance, listenerNet);
-            break;
-        case SOURCETYPE_GPS:
-            mgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTime, minDistance, listenerGPS);
-            break;
-        case SOURCETYPE_ANY:
-            startCollectingAny(minTime, minDistance, mgr);
-            break;
-        default:
-            startCollectingAny(minTime, minDistance, mgr);
+        final int index = isAny(type) ? SOURCETYPE_ANY : type;
+        synchronized (sessionsLock) {
+            if (defaultSessions[index] == null) {
+                defaultSessions[index] = openSession(type, minTime, minDistance);
+            } else {
+                defaultSessions[index].update(minTime, minDistance);
+            }
         }
     }
 
-    private void startCollectingAny(final long minTime, final float minDistance, final LocationManager mgr) {
-        if (isProviderSupported(SOURCETYPE_NET)) {
-            mgr.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, minTime, minDistance, listenerNet);
+    /**
+     * Opens session of client needing location. Provider is requested while
+     * at least one session of its type (or of any type, if the provider is
+     * supported) is open, with the smallest hints of the sessions. Release
+     * the session when location is no longer needed.
+     * 
+     * @param type
+     *            one of SOURCETYPE_*
+     * @param minTime
+     *            minimum time between updates (hint)
+     * @param minDistance
+     *            minimum distance between updates (hint)
+     * @return session
+     */
+    public Session openSession(final int type, final long minTime, final float minDistance) {
+        synchronized (sessionsLock) {
+            final Session session = new Session(type, minTime, minDistance);
+            sessions.add(session);
+            updateRequests();
+            return session;
         }
-        if (isProviderSupported(SOURCETYPE_GPS)) {
-            mgr.requestLocationUpdates(android.location.LocationManager.GPS_PROVIDER, minTime, minDistance, listenerGPS);
+    }
+
+    private static boolean isAny(final int type) {
+        return type != SOURCETYPE_NET && type != SOURCETYPE_GPS;
+    }
+
+    /**
+     * Brings provider requests in line with open sessions. Provider is
+     * requested again only when the merged hints change - requesting updates
+     * for the same listener replaces the previous request.
+     */
+    private void updateRequests() {
+        updateRequest(SOURCETYPE_NET, LocationManager.NETWORK_PROVIDER, listenerNet);
+        updateRequest(SOURCETYPE_GPS, LocationManager.GPS_PROVIDER, listenerGPS);
+    }
+
+    private void updateRequest(final int type, final String provider, final LocationListener listener) {
+        boolean needed = false;
+        long minTime = Long.MAX_VALUE;
+        float minDistance = Float.MAX_VALUE;
+        for (final Session session : sessions) {
+            if (session.type != type && !(isAny(session.type) && isProviderSupported(type))) {
+                continue;
+            }
+            needed = true;
+            minTime = Math.min(minTime, session.minTime);
+            minDistance = Math.min(minDistance, session.minDistance);
+        }
+        if (!needed) {
+            if (requested[type]) {
+                locationManager.removeUpdates(listener);
+                requested[type] = false;
+            }
+        } else if (!requested[type] || requestedMinTime[type] != minTime
+                || requestedMinDistance[type] != minDistance) {
+            if (!requested[type]) {
+                // callbacks were not received while the provider was not
+                // requested
+                final boolean enabled = locationManager.isProviderEnabled(provider);
+                if (type == SOURCETYPE_GPS) {
+                    gpsProviderEnabled = enabled;
+                } else {
+                    networkProviderEnabled = enabled;
+                }
+            }
+            locationManager.requestLocationUpdates(provider, minTime, minDistance, listener);
+            requested[type] = true;
+            requestedMinTime[type] = minTime;
+            requestedMinDistance[type] = minDistance;
+        }
+    }
+
+    private void locationReceived(final int type, final Location location) {
+        final FixListener listener = fixListener;
+        if (listener != null) {
+            listener.fixReceived(type, location);
+        }
+        processLocation(type, location);
+    }
+
+    /**
+     * Processes location the same way as locations delivered by providers.
+     * Used to replay recorded locations - the center should not be
+     * collecting at the same time.
+     * 
+     * @param type
+     *            SOURCETYPE_NET or SOURCETYPE_GPS
+     * @param location
+     *            location from the provider
+     */
+    public void processLocation(final int type, final Location location) {
+        if (type == SOURCETYPE_GPS) {
+            lastLocationGPS = location;
+        } else {
+            lastLocationNet = location;
         }
+        pushLocation(type, location);
+    }
+
+    /**
+     * Sets estimator computing best location from fixes of the providers.
+     * Should be called before collecting starts - the estimator starts
+     * without any fixes.
+     * 
+     * @param estimator
+     *            estimator, for example {@link KalmanLocationEstimator} or
+     *            {@link pl.polidea.utility.sensors.estimator.BestFixEstimator}
+     */
+    public void setEstimator(final LocationEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * Sets listener of locations delivered by providers.
+     * 
+     * @param listener
+     *            listener, null to remove
+     */
+    public void setFixListener(final FixListener listener) {
+        this.fixListener = listener;
     }
 
     /**
      * Force next location update to be notified to all listeners EVEN if
      * current location has not changed. This covers the use case where client
      * does not want to use cached location, but wants to get best location but
-     * wants to get fresh information as well.
+     * wants to get fresh information as well. The location notified is the
+     * estimate including the new fix, even if the estimator would not emit
+     * it.
      */
     public void forceNextLocationChange() {
         forceNextChange = true;
     }
 
     /**
-     * Stops collecting information of given type. This should typically be run
-     * in onPause of activity using it.
+     * Stops collecting information of given type started by
+     * {@link #startCollecting(int, long, float)}. This should typically be run
+     * in onPause of activity using it. ANY stops all the types. Providers stay
+     * requested while other sessions need them.
      * 
      * @param type
      *            type of the provider
      */
     public void stopCollecting(final int type) {
         Log.i(TAG, "stopCollecting: " + type);
-        final LocationManager mgr = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
-        switch (type) {
-        case SOURCETYPE_NET:
-            mgr.removeUpdates(listenerNet);
-            break;
-        case SOURCETYPE_GPS:
-            mgr.removeUpdates(listenerGPS);
-            break;
-        case SOURCETYPE_ANY:
-            mgr.removeUpdates(listenerNet);
-            mgr.removeUpdates(listenerGPS);
-            break;
-        default:
-            mgr.removeUpdates(listenerNet);
-            mgr.removeUpdates(listenerGPS);
-            break;
+        synchronized (sessionsLock) {
+            for (int i = 0; i < defaultSessions.length; i++) {
+                if (defaultSessions[i] != null && (i == type || isAny(type))) {
+                    defaultSessions[i].release();
+                    defaultSessions[i] = null;
+                }
+            }
         }
     }
 
     /**
-     * Pushes location (checks if it is better than the previous onen and sets
-     * it only if it is really better). Note that true value returned does not
-     * mean that the new location was actually better but when notification was
-     * emitted. Emiting notification might also happen when client forced
-     * location update to be emitted on next location update
-     * (forceNextLocationChange).
+     * Pushes location to the estimator and emits the estimate when it
+     * changed enough. Note that true value returned does not mean that the
+     * estimate actually changed but when notification was emitted. Emiting
+     * notification might also happen when client forced location update to
+     * be emitted on next location update (forceNextLocationChange).
      * 
      * @param location
      *            location to push
      * @return true if location has been emitted.
      */
-    private boolean pushLocation(final Location location) {
-        boolean better = false;
-
+    private boolean pushLocation(final int type, final Location location) {
         if (location == null) {
             return false;
         }
-
-        if (bestLocationYet == null) {
-            better = true;
-        } else if (bestLocationYet.getTime() < location.getTime() - 20000) {
-            better = true;
-        } else if (bestLocationYet.hasAccuracy() && location.hasAccuracy()) {
-            // decide using accuracy information
-            if (bestLocationYet.getAccuracy() > location.getAccuracy()) {
-                better = true;
-            }
-        } else if (location == lastLocationGPS) {
-            better = true;
-        } else if (bestLocationYet != lastLocationGPS) {
-            better = true;
-        }
-
-        if (better) {
-            bestLocationYet = location;
-        }
-        if (better || forceNextChange) {
+        if (estimator.push(type, location) || forceNextChange) {
+            // forcing applies to single update only
+            forceNextChange = false;
             emitLocationChange();
             return true;
         } else {
@@ -386,7 +566,7 @@ public class LocationCenter {
      * @return
      */
     private Location getBest() {
-        return bestLocationYet;
+        return estimator.getEstimate();
     }
 
     private void emitLocationChange() {
@@ -394,6 +574,14 @@ public class LocationCenter {
                 getBest()));
     }
 
+    /**
+     * Emits {@link LocationTimeoutNotification} and stops collecting started
+     * by {@link #startCollecting(int, long, float)} if no location arrives in
+     * time. Sessions are left open.
+     * 
+     * @param timeoutMs
+     *            timeout in milliseconds
+     */
     public void setupTimeout(final int timeoutMs) {
         timeoutHandler.sendEmptyMessageDelayed(LOCATION_UPDATE_TIMEOUT, timeoutMs);
     }
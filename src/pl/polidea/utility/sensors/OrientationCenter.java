@@ -1,27 +1,146 @@
 package pl.polidea.utility.sensors;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
 import pl.polidea.utility.notificationcenter.Notification;
 import pl.polidea.utility.notificationcenter.NotificationCenter;
+import pl.polidea.utility.notificationcenter.NotificationCenter.Priority;
+import pl.polidea.utility.sensors.filter.AngleFilter;
+import pl.polidea.utility.sensors.filter.CosineCapFilter;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
 /**
  * Single place where orientation is collected and distributed to any listeners.
  * It uses notification service to distribute the notifications to the
  * registered listeners. It implements filtering on orientation received so that
- * we only get notification when the change is permanent.
+ * we only get notification when the change is permanent. Notification is
+ * emitted only when filtered orientation changes by more than the threshold
+ * set with {@link #setChangeThreshold(float)}, at most once per
+ * {@link #setMinEmitInterval(int)} and at least once per
+ * {@link #setHeartbeatInterval(int)}. Each
+ * {@link OrientationUpdateNotification} carries complete orientation, so the
+ * type can safely be made conflating with
+ * {@link NotificationCenter#setConflating(Class, boolean)}.
+ * <p>
+ * Orientation is computed from rotation vector sensor (fused by the device
+ * from gyroscope, accelerometer and magnetometer) when the device has one, or
+ * from accelerometer and magnetometer readings otherwise - see
+ * {@link #setEngine(int)}.
+ * <p>
+ * By default sensor events are processed on the main thread. With
+ * {@link #setBackgroundProcessing(boolean)} they are processed on a
+ * dedicated thread and only the resulting notifications are passed to the
+ * notification center - the getters can then be called from any thread.
+ * Use {@link #readOrientation(OrientationSnapshot)} to read all the angles
+ * of single sample at once.
+ * <p>
+ * Consumers needing orientation at high rate can register
+ * {@link OrientationSink} instead of listening to
+ * {@link OrientationUpdateNotification}: sinks receive the angles as
+ * primitives directly on the thread processing sensor events, so nothing is
+ * allocated. The notification is not even created when nobody listens to it.
+ * <p>
+ * Consumers which can accept delayed orientation (for example logging
+ * heading in background) should open session with latency budget
+ * ({@link #openSession(int, int)}). When every open session accepts delay,
+ * devices with hardware sensor FIFO (API 19) collect samples without waking
+ * up the processor and deliver them in bursts; every burst is filtered in one
+ * pass and only its final orientation is emitted.
  * 
  */
 public class OrientationCenter {
 
     private static final String TAG = OrientationCenter.class.getSimpleName();
 
+    /**
+     * Rotation vector if the device has it, accelerometer and magnetometer
+     * otherwise.
+     */
+    public static final int ENGINE_AUTO = 0;
+    /**
+     * Rotation vector (falls back to accelerometer and magnetometer).
+     */
+    public static final int ENGINE_ROTATION_VECTOR = 1;
+    /**
+     * Game rotation vector - does not use magnetometer, so it is not
+     * disturbed by magnetic fields, but azimuth is relative to arbitrary
+     * direction (falls back to rotation vector, then to accelerometer and
+     * magnetometer).
+     */
+    public static final int ENGINE_GAME_ROTATION_VECTOR = 2;
+    /**
+     * Accelerometer and magnetometer.
+     */
+    public static final int ENGINE_ACCELEROMETER_MAGNETIC = 3;
+
+    // Sensor.TYPE_ROTATION_VECTOR (API 9) and TYPE_GAME_ROTATION_VECTOR
+    // (API 18) are not available in the SDK we build against
+    private static final int TYPE_ROTATION_VECTOR = 11;
+    private static final int TYPE_GAME_ROTATION_VECTOR = 15;
+
+    /**
+     * The same remapping as remapCoordinateSystem(AXIS_Z, AXIS_MINUS_X) of
+     * the accelerometer and magnetometer engine.
+     */
+    static final Quaternion CAMERA_REMAP = new Quaternion(0.5f, -0.5f, 0.5f, -0.5f);
+
+    private static final int BATCH_CAPACITY = 256;
+
+    /**
+     * SensorManager.registerListener with maxReportLatencyUs (API 19), null
+     * on older versions.
+     */
+    private static final Method REGISTER_WITH_LATENCY = findRegisterWithLatency();
+
+    private static Method findRegisterWithLatency() {
+        try {
+            return SensorManager.class.getMethod("registerListener", SensorEventListener.class, Sensor.class,
+                    int.class, int.class, Handler.class);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sensor.getFifoMaxEventCount (API 19), null on older versions.
+     */
+    private static final Method GET_FIFO_MAX_EVENT_COUNT = findGetFifoMaxEventCount();
+
+    private static Method findGetFifoMaxEventCount() {
+        try {
+            return Sensor.class.getMethod("getFifoMaxEventCount");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     private final SensorManager sensorManager;
     private boolean sensorRegistered = false;
+    private int registeredDelay;
+    private int registeredLatencyMs;
+    private final Object sessionsLock = new Object();
+    private final List<Session> sessions = new ArrayList<Session>();
+    private Session defaultSession;
+    private int engine = ENGINE_AUTO;
+    private int activeEngine = ENGINE_AUTO;
+    private boolean backgroundProcessing = false;
+    private HandlerThread processingThread;
+    private Handler processingHandler;
+    // handler of the thread processing events (main looper in foreground)
+    private Handler eventHandler;
+    private volatile int reportLatencyMs = 0;
+    private volatile boolean batching = false;
 
     private final ValueProcessor azimuth = new ValueProcessor(0.6f, 0.25f);
     private final ValueProcessor pitch = new ValueProcessor(0.08f, 0.5f);
@@ -33,25 +152,52 @@ public class OrientationCenter {
     private final float[] camR = new float[16];
     private final float[] inclinationMatrix = new float[16];
     private final float[] lastOrientation = new float[3];
+    private final Quaternion rotation = new Quaternion();
+    private final OrientationSeqLock latest = new OrientationSeqLock();
+    private final float[] batchAzimuth = new float[BATCH_CAPACITY];
+    private final float[] batchPitch = new float[BATCH_CAPACITY];
+    private final float[] batchRoll = new float[BATCH_CAPACITY];
+    private int batchSize;
+    private long batchFirstTimestamp;
+    private long batchLastTimestamp;
+    private boolean batchEndPosted;
+
+    private final Runnable batchEnd = new Runnable() {
+        @Override
+        public void run() {
+            batchEndPosted = false;
+            processBatch();
+        }
+    };
+    private final Object sinksLock = new Object();
+    private volatile OrientationSink[] sinks = new OrientationSink[0];
+    private volatile SampleListener sampleListener;
     private boolean loopReady = false; // NOPMD
     private boolean calibrationRequestEmited = false;
 
-    private float declination = 0;
+    private volatile float declination = 0;
+
+    private volatile long minEmitIntervalNanos = 0;
+    private volatile long heartbeatIntervalNanos = 0;
+    private long lastEmitTimestamp;
+    private boolean emitted = false;
 
     private final SensorEventListener orientationSensorlistener = new SensorEventListener() {
 
         @Override
         public void onAccuracyChanged(final Sensor sensor, final int accuracy) {
-            if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
+            if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD || sensor.getType() == TYPE_ROTATION_VECTOR) {
                 if (accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) {
                     if (!calibrationRequestEmited) {
                         calibrationRequestEmited = true;
+                        latest.writeAccuracy(false);
                         notificationCenter.emitNotification(OrientationAccuracyNotification.class,
                                 new OrientationAccuracyNotification(false));
                     }
                 } else {
                     if (calibrationRequestEmited) {
                         calibrationRequestEmited = false;
+                        latest.writeAccuracy(true);
                         notificationCenter.emitNotification(OrientationAccuracyNotification.class,
                                 new OrientationAccuracyNotification(true));
                     }
@@ -61,42 +207,147 @@ public class OrientationCenter {
 
         @Override
         public void onSensorChanged(final SensorEvent event) {
-            switch (event.sensor.getType()) {
-            case Sensor.TYPE_ACCELEROMETER:
-                System.arraycopy(event.values, 0, accelValues, 0, 3);
-                break;
-            case Sensor.TYPE_MAGNETIC_FIELD:
-                System.arraycopy(event.values, 0, geomagValues, 0, 3);
-                loopReady = true;
-                break;
-            default:
-                break;
+            final SampleListener listener = sampleListener;
+            if (listener != null) {
+                listener.sampleReceived(event.sensor.getType(), event.values, event.timestamp);
             }
+            processSample(event.sensor.getType(), event.values, event.timestamp);
+        }
+    };
 
-            if (accelValues != null && geomagValues != null && loopReady) {
-                loopReady = false;
-
-                SensorManager.getRotationMatrix(devR, inclinationMatrix, accelValues, geomagValues);
-                SensorManager.remapCoordinateSystem(devR, SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X, camR);
-                SensorManager.getOrientation(camR, lastOrientation);
-
-                // azimuth = discriminate(azimuth, lastOrientation[0]);
-                // pitch = discriminate(pitch, lastOrientation[1]);
-                // roll = discriminate(roll, lastOrientation[2]);
-                boolean change = false;
-                change = azimuth.push(lastOrientation[0]) || change;
-                change = pitch.push(lastOrientation[1]) || change;
-                change = roll.push(lastOrientation[2]) || change;
-                if (change) {
-                    notificationCenter.emitNotification(OrientationUpdateNotification.class,
-                            new OrientationUpdateNotification(getAzimuth(), getPitch(), getRoll()));
-                }
+    /**
+     * Processes sensor sample the same way as samples delivered by sensors.
+     * Used to replay recorded samples - the center should not be collecting
+     * at the same time, and samples should be processed by single thread.
+     * 
+     * @param sensorType
+     *            type of the sensor (Sensor.TYPE_*)
+     * @param values
+     *            values of the sample
+     * @param timestampNanos
+     *            timestamp of the sample
+     */
+    public void processSample(final int sensorType, final float[] values, final long timestampNanos) {
+        switch (sensorType) {
+        case Sensor.TYPE_ACCELEROMETER:
+            System.arraycopy(values, 0, accelValues, 0, 3);
+            break;
+        case Sensor.TYPE_MAGNETIC_FIELD:
+            System.arraycopy(values, 0, geomagValues, 0, 3);
+            loopReady = true;
+            break;
+        case TYPE_ROTATION_VECTOR:
+        case TYPE_GAME_ROTATION_VECTOR:
+            rotation.setFromRotationVector(values);
+            rotation.multiply(rotation, CAMERA_REMAP);
+            rotation.getOrientation(lastOrientation);
+            onOrientation(timestampNanos);
+            return;
+        default:
+            break;
+        }
+
+        if (accelValues != null && geomagValues != null && loopReady) {
+            loopReady = false;
+
+            SensorManager.getRotationMatrix(devR, inclinationMatrix, accelValues, geomagValues);
+            SensorManager.remapCoordinateSystem(devR, SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X, camR);
+            SensorManager.getOrientation(camR, lastOrientation);
+            onOrientation(timestampNanos);
+        }
+    }
+
+    private void onOrientation(final long timestamp) {
+        if (batching) {
+            appendToBatch(timestamp);
+        } else {
+            processOrientation(timestamp);
+        }
+    }
+
+    private void processOrientation(final long timestamp) {
+        // azimuth = discriminate(azimuth, lastOrientation[0]);
+        // pitch = discriminate(pitch, lastOrientation[1]);
+        // roll = discriminate(roll, lastOrientation[2]);
+        boolean change = false;
+        change = azimuth.push(lastOrientation[0], timestamp) || change;
+        change = pitch.push(lastOrientation[1], timestamp) || change;
+        change = roll.push(lastOrientation[2], timestamp) || change;
+        publish(change, timestamp);
+    }
+
+    /**
+     * Collects sample delivered from sensor FIFO. All the samples of a burst
+     * are delivered in single looper message, so the runnable posted with
+     * the first of them runs after the last one.
+     */
+    private void appendToBatch(final long timestamp) {
+        if (batchSize == 0) {
+            batchFirstTimestamp = timestamp;
+        }
+        batchAzimuth[batchSize] = lastOrientation[0];
+        batchPitch[batchSize] = lastOrientation[1];
+        batchRoll[batchSize] = lastOrientation[2];
+        batchLastTimestamp = timestamp;
+        batchSize++;
+        if (batchSize == BATCH_CAPACITY) {
+            processBatch();
+        } else if (!batchEndPosted) {
+            batchEndPosted = true;
+            eventHandler.post(batchEnd);
+        }
+    }
+
+    private void processBatch() {
+        if (batchSize == 0) {
+            return;
+        }
+        final long period = batchSize > 1 ? (batchLastTimestamp - batchFirstTimestamp) / (batchSize - 1) : 0;
+        boolean change = false;
+        change = azimuth.pushBatch(batchAzimuth, 0, batchSize, batchFirstTimestamp, period) || change;
+        change = pitch.pushBatch(batchPitch, 0, batchSize, batchFirstTimestamp, period) || change;
+        change = roll.pushBatch(batchRoll, 0, batchSize, batchFirstTimestamp, period) || change;
+        batchSize = 0;
+        publish(change, batchLastTimestamp);
+    }
+
+    private void publish(final boolean change, final long timestamp) {
+        latest.write(azimuth.get(), pitch.get(), roll.get(), timestamp);
+        if (shouldEmit(change, timestamp)) {
+            azimuth.markEmitted();
+            pitch.markEmitted();
+            roll.markEmitted();
+            lastEmitTimestamp = timestamp;
+            emitted = true;
+            final float currentAzimuth = getAzimuth();
+            final float currentPitch = getPitch();
+            final float currentRoll = getRoll();
+            for (final OrientationSink sink : sinks) {
+                sink.orientationChanged(currentAzimuth, currentPitch, currentRoll, timestamp);
+            }
+            if (notificationCenter.hasListeners(OrientationUpdateNotification.class)) {
+                notificationCenter.emitNotification(OrientationUpdateNotification.class,
+                        new OrientationUpdateNotification(currentAzimuth, currentPitch, currentRoll));
             }
         }
-    };
+    }
 
     private final NotificationCenter notificationCenter;
 
+    private boolean shouldEmit(final boolean change, final long timestamp) {
+        if (!emitted) {
+            return true;
+        }
+        final long elapsed = timestamp - lastEmitTimestamp;
+        if (change) {
+            // change held back by the rate cap is emitted with the first
+            // sample after the interval, since it is still pending then
+            return elapsed >= minEmitIntervalNanos;
+        }
+        final long heartbeat = heartbeatIntervalNanos;
+        return heartbeat > 0 && elapsed >= heartbeat;
+    }
+
     /**
      * Creates the center.
      * 
@@ -108,36 +359,354 @@ public class OrientationCenter {
     public OrientationCenter(final Context context, final NotificationCenter notificationCenter) {
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         this.notificationCenter = notificationCenter;
+        // accuracy changes should not wait behind orientation updates
+        notificationCenter.setPriority(OrientationAccuracyNotification.class, Priority.HIGH);
     }
 
     /**
      * Starts collecting orientation. Typically this should be run in onResume
-     * of the activity using it.
+     * of the activity using it. Equivalent to single session at game rate,
+     * shared by all callers of this method, with latency set by
+     * {@link #setReportLatency(int)} - use {@link #openSession(int, int)}
+     * when several independent clients use the center.
      */
     public void startCollecting() {
         Log.d(TAG, "startCollecting");
-        if (!sensorRegistered) {
-            sensorManager.registerListener(orientationSensorlistener,
-                    sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), SensorManager.SENSOR_DELAY_GAME);
-            sensorManager.registerListener(orientationSensorlistener,
-                    sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_GAME);
-            sensorRegistered = true;
+        synchronized (sessionsLock) {
+            if (defaultSession == null) {
+                defaultSession = openSession(SensorManager.SENSOR_DELAY_GAME);
+            }
+        }
+    }
+
+    /**
+     * Opens session of client needing orientation, with latency set by
+     * {@link #setReportLatency(int)}.
+     * 
+     * @param sensorDelay
+     *            one of SensorManager.SENSOR_DELAY_* constants or sampling
+     *            period in microseconds (API 9)
+     * @return session
+     * @see #openSession(int, int)
+     */
+    public Session openSession(final int sensorDelay) {
+        return openSession(sensorDelay, reportLatencyMs);
+    }
+
+    /**
+     * Opens session of client needing orientation. Sensors are registered
+     * while at least one session is open, at the rate of the most demanding
+     * session and with the lowest report latency of the sessions. Release
+     * the session when orientation is no longer needed.
+     * 
+     * @param sensorDelay
+     *            one of SensorManager.SENSOR_DELAY_* constants or sampling
+     *            period in microseconds (API 9)
+     * @param maxReportLatencyMs
+     *            how long orientation may be delayed in milliseconds, 0 to
+     *            deliver every sample immediately (see
+     *            {@link #setReportLatency(int)})
+     * @return session
+     */
+    public Session openSession(final int sensorDelay, final int maxReportLatencyMs) {
+        checkSensorDelay(sensorDelay);
+        checkReportLatency(maxReportLatencyMs);
+        synchronized (sessionsLock) {
+            final Session session = new Session(sensorDelay, maxReportLatencyMs);
+            sessions.add(session);
+            updateRegistration();
+            return session;
+        }
+    }
+
+    private static void checkSensorDelay(final int sensorDelay) {
+        if (sensorDelay < 0) {
+            throw new IllegalArgumentException("Sensor delay must not be negative: " + sensorDelay);
+        }
+    }
+
+    private static void checkReportLatency(final int latencyMs) {
+        if (latencyMs < 0) {
+            throw new IllegalArgumentException("Report latency must not be negative: " + latencyMs);
+        }
+    }
+
+    /**
+     * Converts sensor delay to sampling period, so that constants and
+     * periods can be compared.
+     */
+    private static int samplingPeriodUs(final int sensorDelay) {
+        switch (sensorDelay) {
+        case SensorManager.SENSOR_DELAY_FASTEST:
+            return 0;
+        case SensorManager.SENSOR_DELAY_GAME:
+            return 20000;
+        case SensorManager.SENSOR_DELAY_UI:
+            return 66667;
+        case SensorManager.SENSOR_DELAY_NORMAL:
+            return 200000;
+        default:
+            return sensorDelay;
+        }
+    }
+
+    /**
+     * Brings sensor registration in line with open sessions. Sensors are
+     * registered again only when the merged rate or latency changes.
+     */
+    private void updateRegistration() {
+        int sensorDelay = -1;
+        int latencyMs = Integer.MAX_VALUE;
+        for (final Session session : sessions) {
+            if (sensorDelay < 0 || samplingPeriodUs(session.sensorDelay) < samplingPeriodUs(sensorDelay)) {
+                sensorDelay = session.sensorDelay;
+            }
+            latencyMs = Math.min(latencyMs, session.maxReportLatencyMs);
+        }
+        if (sensorDelay < 0) {
+            if (sensorRegistered) {
+                unregisterSensors();
+                stopProcessing();
+            }
+        } else if (!sensorRegistered) {
+            startProcessing();
+            registerSensors(sensorDelay, latencyMs);
+        } else if (samplingPeriodUs(sensorDelay) != samplingPeriodUs(registeredDelay)
+                || latencyMs != registeredLatencyMs) {
+            Log.d(TAG, "changing sensor delay to " + sensorDelay + ", report latency to " + latencyMs);
+            unregisterSensors();
+            registerSensors(sensorDelay, latencyMs);
+        }
+    }
+
+    /**
+     * Prepares the thread processing events before sensors are registered
+     * from scratch. Processing thread still running (its quit not processed
+     * yet) is reused. State of the processing is reset by the processing
+     * thread itself, after the events still queued from previous
+     * registration.
+     */
+    private void startProcessing() {
+        if (backgroundProcessing) {
+            if (processingThread == null) {
+                processingThread = new HandlerThread(TAG);
+                processingThread.start();
+                processingHandler = new Handler(processingThread.getLooper());
+            }
+            eventHandler = processingHandler;
+        } else {
+            // detached thread quits once it gets to its quit message
+            processingThread = null;
+            processingHandler = null;
+            eventHandler = new Handler(Looper.getMainLooper());
+        }
+        eventHandler.post(resetProcessing);
+    }
+
+    private final Runnable resetProcessing = new Runnable() {
+        @Override
+        public void run() {
             calibrationRequestEmited = false;
+            latest.writeAccuracy(true);
+            emitted = false;
+        }
+    };
+
+    /**
+     * Quits processing thread after the events already queued. Looper.quit
+     * discards pending messages (quitSafely is API 18), so the quit is
+     * posted behind them instead.
+     */
+    private void stopProcessing() {
+        if (processingHandler != null) {
+            processingHandler.post(quitProcessing);
+        }
+    }
+
+    private final Runnable quitProcessing = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (sessionsLock) {
+                if (sensorRegistered && processingThread == Thread.currentThread()) {
+                    // sensors were registered again on this thread
+                    return;
+                }
+                if (processingThread == Thread.currentThread()) {
+                    processingThread = null;
+                    processingHandler = null;
+                }
+            }
+            Looper.myLooper().quit();
+        }
+    };
+
+    /**
+     * Registers sensors on the handler prepared by
+     * {@link #startProcessing()}. Changing rate or latency registers them
+     * again on the same handler, so events are always processed by single
+     * thread.
+     */
+    private void registerSensors(final int sensorDelay, final int latencyMs) {
+        final Sensor rotationSensor = findRotationSensor();
+        final Sensor[] sensors;
+        if (rotationSensor == null) {
+            activeEngine = ENGINE_ACCELEROMETER_MAGNETIC;
+            sensors = new Sensor[] { sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
+                    sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) };
+        } else {
+            activeEngine = rotationSensor.getType() == TYPE_ROTATION_VECTOR ? ENGINE_ROTATION_VECTOR
+                    : ENGINE_GAME_ROTATION_VECTOR;
+            sensors = new Sensor[] { rotationSensor };
         }
+        // batch collected so far is finished by batchEnd already posted
+        batching = latencyMs > 0 && REGISTER_WITH_LATENCY != null && hasFifo(sensors);
+        for (final Sensor sensor : sensors) {
+            registerSensor(sensor, sensorDelay, latencyMs * 1000);
+        }
+        registeredDelay = sensorDelay;
+        registeredLatencyMs = latencyMs;
+        sensorRegistered = true;
     }
 
     /**
-     * Stops collecting orientation. Typically this should be run in onPause of
-     * the activity using it.
+     * Checks that all the sensors have hardware FIFO - without it the
+     * latency does not save any wake-ups and batch processing only delays
+     * orientation.
+     */
+    private static boolean hasFifo(final Sensor[] sensors) {
+        if (GET_FIFO_MAX_EVENT_COUNT == null) {
+            return false;
+        }
+        for (final Sensor sensor : sensors) {
+            if (sensor == null) {
+                return false;
+            }
+            try {
+                if (((Integer) GET_FIFO_MAX_EVENT_COUNT.invoke(sensor)) <= 0) {
+                    return false;
+                }
+            } catch (final IllegalAccessException e) {
+                Log.w(TAG, "Cannot read sensor FIFO size", e);
+                return false;
+            } catch (final InvocationTargetException e) {
+                Log.w(TAG, "Cannot read sensor FIFO size", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void registerSensor(final Sensor sensor, final int sensorDelay, final int latencyUs) {
+        if (batching) {
+            try {
+                REGISTER_WITH_LATENCY.invoke(sensorManager, orientationSensorlistener, sensor, sensorDelay,
+                        latencyUs, processingHandler);
+                return;
+            } catch (final IllegalAccessException e) {
+                Log.w(TAG, "Cannot register sensor with report latency", e);
+            } catch (final InvocationTargetException e) {
+                Log.w(TAG, "Cannot register sensor with report latency", e);
+            }
+        }
+        sensorManager.registerListener(orientationSensorlistener, sensor, sensorDelay, processingHandler);
+    }
+
+    private Sensor findRotationSensor() {
+        Sensor sensor = null;
+        if (engine == ENGINE_GAME_ROTATION_VECTOR) {
+            sensor = sensorManager.getDefaultSensor(TYPE_GAME_ROTATION_VECTOR);
+        }
+        if (sensor == null && engine != ENGINE_ACCELEROMETER_MAGNETIC) {
+            sensor = sensorManager.getDefaultSensor(TYPE_ROTATION_VECTOR);
+        }
+        return sensor;
+    }
+
+    /**
+     * Stops collecting orientation started by {@link #startCollecting()}.
+     * Typically this should be run in onPause of the activity using it.
+     * Sensors stay registered while other sessions are open.
      */
     public void stopCollecting() {
         Log.d(TAG, "stopCollecting");
-        if (sensorRegistered) {
-            sensorManager.unregisterListener(orientationSensorlistener);
-            sensorRegistered = false;
+        synchronized (sessionsLock) {
+            if (defaultSession != null) {
+                defaultSession.release();
+                defaultSession = null;
+            }
         }
     }
 
+    private void unregisterSensors() {
+        sensorManager.unregisterListener(orientationSensorlistener);
+        sensorRegistered = false;
+    }
+
+    /**
+     * Sets how long orientation may be delayed in sessions opened without
+     * explicit latency (including {@link #startCollecting()}). When latency
+     * of all open sessions is not zero and the sensors have hardware FIFO
+     * (API 19), sensors collect samples in the FIFO for up to the lowest of
+     * the latencies before they wake up the processor and deliver them.
+     * Burst of samples is filtered in one pass and only the final
+     * orientation is emitted. Sessions already open keep their latency.
+     * 
+     * @param latencyMs
+     *            maximum delay of orientation in milliseconds, 0 to deliver
+     *            every sample immediately
+     */
+    public void setReportLatency(final int latencyMs) {
+        checkReportLatency(latencyMs);
+        this.reportLatencyMs = latencyMs;
+    }
+
+    public int getReportLatency() {
+        return reportLatencyMs;
+    }
+
+    /**
+     * Makes the center process sensor events on a dedicated background
+     * thread instead of the main thread. Takes effect when collecting starts
+     * next time (after all sessions were closed). Notifications are still
+     * delivered by the notification center's dispatcher.
+     * 
+     * @param background
+     *            true to process events in background
+     */
+    public void setBackgroundProcessing(final boolean background) {
+        this.backgroundProcessing = background;
+    }
+
+    public boolean isBackgroundProcessing() {
+        return backgroundProcessing;
+    }
+
+    /**
+     * Selects sensors orientation is computed from. Takes effect when
+     * sensors are registered next time.
+     * 
+     * @param engine
+     *            one of ENGINE_* constants
+     */
+    public void setEngine(final int engine) {
+        this.engine = engine;
+    }
+
+    public int getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns engine actually used since last start - requested engine might
+     * not be available on the device.
+     * 
+     * @return one of ENGINE_* constants other than {@link #ENGINE_AUTO}, or
+     *         {@link #ENGINE_AUTO} if collecting never started
+     */
+    public int getActiveEngine() {
+        return activeEngine;
+    }
+
     public float getDeclination() {
         return (float) Math.toDegrees(declination);
     }
@@ -146,6 +715,160 @@ public class OrientationCenter {
         this.declination = (float) Math.toRadians(declination);
     }
 
+    /**
+     * Sets minimum change of any angle which causes notification. Changes
+     * smaller than 1/400 rad are never notified.
+     * 
+     * @param degrees
+     *            threshold in degrees, 0 notifies every change
+     */
+    public void setChangeThreshold(final float degrees) {
+        final float threshold = (float) Math.toRadians(degrees);
+        azimuth.setThreshold(threshold);
+        pitch.setThreshold(threshold);
+        roll.setThreshold(threshold);
+    }
+
+    /**
+     * Replaces filters of azimuth (by default {@link CosineCapFilter} with
+     * cap 0.6 and decay 0.25). Filters keep state, so every axis needs its
+     * own instances.
+     * 
+     * @param filters
+     *            filters applied in order
+     */
+    public void setAzimuthFilters(final AngleFilter... filters) {
+        azimuth.setFilters(filters);
+    }
+
+    /**
+     * Replaces filters of pitch (by default {@link CosineCapFilter} with cap
+     * 0.08 and decay 0.5).
+     * 
+     * @param filters
+     *            filters applied in order
+     */
+    public void setPitchFilters(final AngleFilter... filters) {
+        pitch.setFilters(filters);
+    }
+
+    /**
+     * Replaces filters of roll (by default {@link CosineCapFilter} with cap
+     * 0.08 and decay 0.5).
+     * 
+     * @param filters
+     *            filters applied in order
+     */
+    public void setRollFilters(final AngleFilter... filters) {
+        roll.setFilters(filters);
+    }
+
+    /**
+     * Limits rate of notifications. Change which comes sooner than the
+     * interval after previous notification is notified later.
+     * 
+     * @param intervalMs
+     *            minimum time between notifications in milliseconds, 0 for
+     *            no limit
+     */
+    public void setMinEmitInterval(final int intervalMs) {
+        minEmitIntervalNanos = intervalMs * 1000000L;
+    }
+
+    /**
+     * Makes the center repeat the notification when orientation has not
+     * changed for the interval, so that listeners can tell that the sensors
+     * still work.
+     * 
+     * @param intervalMs
+     *            maximum time without notification in milliseconds, 0 to
+     *            notify changes only
+     */
+    public void setHeartbeatInterval(final int intervalMs) {
+        heartbeatIntervalNanos = intervalMs * 1000000L;
+    }
+
+    /**
+     * Sets listener of raw sensor samples.
+     * 
+     * @param listener
+     *            listener, null to remove
+     */
+    public void setSampleListener(final SampleListener listener) {
+        this.sampleListener = listener;
+    }
+
+    /**
+     * Adds sink receiving orientation whenever
+     * {@link OrientationUpdateNotification} would be emitted. The sink is
+     * called on the thread processing sensor events (main thread unless
+     * background processing is on), so it must return quickly.
+     * 
+     * @param sink
+     *            sink to add
+     */
+    public void addOrientationSink(final OrientationSink sink) {
+        synchronized (sinksLock) {
+            final OrientationSink[] current = sinks;
+            for (final OrientationSink existing : current) {
+                if (existing == sink) {
+                    return;
+                }
+            }
+            final OrientationSink[] updated = new OrientationSink[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = sink;
+            sinks = updated;
+        }
+    }
+
+    /**
+     * Removes sink.
+     * 
+     * @param sink
+     *            sink to remove
+     */
+    public void removeOrientationSink(final OrientationSink sink) {
+        synchronized (sinksLock) {
+            final OrientationSink[] current = sinks;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == sink) {
+                    final OrientationSink[] updated = new OrientationSink[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    sinks = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads azimuth, pitch and roll of the latest sample together with its
+     * timestamp and accuracy. Lock-free and allocation-free, can be called
+     * from any thread - reuse the snapshot.
+     * 
+     * @param out
+     *            snapshot to fill
+     * @return false if no sample has been processed yet
+     */
+    public boolean readOrientation(final OrientationSnapshot out) {
+        return latest.read(declination, out);
+    }
+
+    /**
+     * Reads azimuth, pitch and roll of the latest sample. Lock-free and
+     * allocation-free, can be called from any thread.
+     * 
+     * @param out
+     *            array receiving azimuth, pitch and roll (radians)
+     * @return timestamp of the sample (nanoseconds), -1 if no sample has been
+     *         processed yet
+     */
+    public long readOrientation(final float[] out) {
+        return latest.read(declination, out);
+    }
+
     public float getAzimuth() {
         return azimuth.get() - declination;
     }
@@ -186,6 +909,163 @@ public class OrientationCenter {
         }
     }
 
+    /**
+     * Client of the center - sensors are registered while any session is
+     * open.
+     * 
+     */
+    public final class Session {
+        private int sensorDelay;
+        private int maxReportLatencyMs;
+        private boolean open = true;
+
+        Session(final int sensorDelay, final int maxReportLatencyMs) {
+            this.sensorDelay = sensorDelay;
+            this.maxReportLatencyMs = maxReportLatencyMs;
+        }
+
+        public int getSensorDelay() {
+            synchronized (sessionsLock) {
+                return sensorDelay;
+            }
+        }
+
+        /**
+         * Changes rate needed by the session.
+         * 
+         * @param sensorDelay
+         *            one of SensorManager.SENSOR_DELAY_* constants or
+         *            sampling period in microseconds (API 9)
+         */
+        public void setSensorDelay(final int sensorDelay) {
+            checkSensorDelay(sensorDelay);
+            synchronized (sessionsLock) {
+                this.sensorDelay = sensorDelay;
+                if (open) {
+                    updateRegistration();
+                }
+            }
+        }
+
+        public int getMaxReportLatency() {
+            synchronized (sessionsLock) {
+                return maxReportLatencyMs;
+            }
+        }
+
+        /**
+         * Changes how long orientation may be delayed for the session.
+         * 
+         * @param maxReportLatencyMs
+         *            maximum delay of orientation in milliseconds, 0 to
+         *            deliver every sample immediately
+         */
+        public void setMaxReportLatency(final int maxReportLatencyMs) {
+            checkReportLatency(maxReportLatencyMs);
+            synchronized (sessionsLock) {
+                this.maxReportLatencyMs = maxReportLatencyMs;
+                if (open) {
+                    updateRegistration();
+                }
+            }
+        }
+
+        /**
+         * Closes the session. Further calls do nothing.
+         */
+        public void release() {
+            synchronized (sessionsLock) {
+                if (open) {
+                    open = false;
+                    sessions.remove(this);
+                    updateRegistration();
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives raw sensor samples before they are processed - for example to
+     * record them. Called on the thread processing sensor events; values
+     * must not be kept after the call returns.
+     * 
+     */
+    public interface SampleListener {
+        void sampleReceived(int sensorType, float[] values, long timestampNanos);
+    }
+
+    /**
+     * Receives orientation as primitives, without allocating notification.
+     * 
+     */
+    public interface OrientationSink {
+        /**
+         * Called when orientation changes.
+         * 
+         * @param azimuth
+         *            azimuth in radians (declination applied)
+         * @param pitch
+         *            pitch in radians
+         * @param roll
+         *            roll in radians
+         * @param timestampNanos
+         *            sensor timestamp of the sample
+         */
+        void orientationChanged(float azimuth, float pitch, float roll, long timestampNanos);
+    }
+
+    /**
+     * Orientation of single sample, filled by
+     * {@link OrientationCenter#readOrientation(OrientationSnapshot)}.
+     * 
+     */
+    public static class OrientationSnapshot {
+        private float azimuth;
+        private float pitch;
+        private float roll;
+        private long timestamp;
+        private boolean accurate;
+
+        void set(final float azimuth, final float pitch, final float roll, final long timestamp,
+                final boolean accurate) {
+            this.azimuth = azimuth;
+            this.pitch = pitch;
+            this.roll = roll;
+            this.timestamp = timestamp;
+            this.accurate = accurate;
+        }
+
+        public float getAzimuth() {
+            return azimuth;
+        }
+
+        public float getPitch() {
+            return pitch;
+        }
+
+        public float getRoll() {
+            return roll;
+        }
+
+        /**
+         * Returns sensor timestamp of the sample.
+         * 
+         * @return timestamp in nanoseconds
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns false when sensor reported it needs calibration.
+         * 
+         * @return accuracy state
+         */
+        public boolean isAccurate() {
+            return accurate;
+        }
+    }
+
     /**
      * Notified when orientation accuracy changed.
      * 
@@ -203,18 +1083,26 @@ public class OrientationCenter {
     }
 
     /**
-     * Filtering class. Applies cap on the changes received (so we wont allow
-     * single change bigger than highCap) including decay and the fact that we
-     * can go round.
+     * Filtering class. Runs the samples through chain of filters (by default
+     * single {@link CosineCapFilter}, which applies cap on the changes
+     * received including decay and the fact that we can go round), keeps the
+     * result rounded to 1/400 rad and tells whether it changed since last
+     * emitted.
      * 
      * @author potiuk
      * 
      */
     protected static class ValueProcessor {
-        private final float highCap;
-        private final float decay;
+        private static final long DEFAULT_PERIOD_NANOS = 20000000L;
+
+        private volatile AngleFilter[] filters;
 
-        private float oldValue = 0;
+        // written once per push so that readers on other threads never see
+        // value before it is filtered completely
+        private volatile float oldValue = 0;
+        private float emittedValue = 0;
+        private volatile float threshold = 0;
+        private long lastTimestamp;
 
         /**
          * Parameters of the filter.
@@ -228,37 +1116,132 @@ public class OrientationCenter {
          *            slower we move.
          */
         public ValueProcessor(final float highCap, final float decay) {
-            this.highCap = highCap;
-            this.decay = decay;
+            this(new CosineCapFilter(highCap, decay));
+        }
+
+        /**
+         * Creates processor with chain of filters.
+         * 
+         * @param filters
+         *            filters applied in order
+         */
+        public ValueProcessor(final AngleFilter... filters) {
+            this.filters = filters.clone();
+        }
+
+        /**
+         * Replaces the chain of filters.
+         * 
+         * @param filters
+         *            filters applied in order
+         */
+        public void setFilters(final AngleFilter... filters) {
+            this.filters = filters.clone();
         }
 
         public boolean push(final float val) {
-            float newValue = val;
-            if (oldValue - newValue >= Math.PI) {
-                newValue += 2 * Math.PI;
-            } else if (oldValue - newValue <= -Math.PI) {
-                newValue -= 2 * Math.PI;
+            return push(val, lastTimestamp + DEFAULT_PERIOD_NANOS);
+        }
+
+        /**
+         * Filters sample.
+         * 
+         * @param val
+         *            angle in radians
+         * @param timestampNanos
+         *            time of the sample
+         * @return true if the value changed since it was last emitted
+         */
+        public boolean push(final float val, final long timestampNanos) {
+            float value = val;
+            for (final AngleFilter filter : filters) {
+                value = filter.filter(value, timestampNanos);
             }
-            final float diff = newValue - oldValue;
-            oldValue += function(diff);
-            if (oldValue >= Math.PI) {
-                oldValue -= 2 * Math.PI;
-            } else if (oldValue <= -Math.PI) {
-                oldValue += 2 * Math.PI;
+            lastTimestamp = timestampNanos;
+            oldValue = value;
+            return isChanged();
+        }
+
+        /**
+         * Filters recorded samples in bulk - every filter runs over the whole
+         * batch before the next one. The samples are replaced with the values
+         * filtered (not rounded).
+         * 
+         * @param values
+         *            angles in radians, taken at sensor rate of the game
+         *            delay (20 ms apart)
+         * @param offset
+         *            index of first sample
+         * @param length
+         *            number of samples
+         * @return true if the value changed since it was last emitted
+         */
+        public boolean pushBatch(final float[] values, final int offset, final int length) {
+            return pushBatch(values, offset, length, lastTimestamp + DEFAULT_PERIOD_NANOS, DEFAULT_PERIOD_NANOS);
+        }
+
+        /**
+         * Filters samples taken at regular intervals in bulk.
+         * 
+         * @param values
+         *            angles in radians
+         * @param offset
+         *            index of first sample
+         * @param length
+         *            number of samples
+         * @param firstTimestampNanos
+         *            time of first sample
+         * @param periodNanos
+         *            time between samples
+         * @return true if the value changed since it was last emitted
+         */
+        public boolean pushBatch(final float[] values, final int offset, final int length,
+                final long firstTimestampNanos, final long periodNanos) {
+            if (length == 0) {
+                return isChanged();
             }
-            return true;
+            for (final AngleFilter filter : filters) {
+                filter.filter(values, offset, length, firstTimestampNanos, periodNanos);
+            }
+            lastTimestamp = firstTimestampNanos + (length - 1) * periodNanos;
+            oldValue = values[offset + length - 1];
+            return isChanged();
         }
 
         public float get() {
             return Math.round(oldValue * 400.0f) / 400.0f;
         }
 
-        private float function(final float arg) {
-            return arg * (float) (1 - Math.cos(clamp(arg, -highCap, highCap) / highCap * Math.PI)) / 2.0f * decay;
+        /**
+         * Sets minimum change reported by push.
+         * 
+         * @param threshold
+         *            threshold in radians
+         */
+        public void setThreshold(final float threshold) {
+            this.threshold = threshold;
+        }
+
+        /**
+         * Checks whether the value differs from the value last marked as
+         * emitted by more than the threshold.
+         * 
+         * @return true if changed
+         */
+        public boolean isChanged() {
+            float diff = Math.abs(get() - emittedValue);
+            if (diff > Math.PI) {
+                diff = (float) (2 * Math.PI) - diff;
+            }
+            return diff > threshold;
         }
 
-        private float clamp(final float a, final float min, final float max) {
-            return a > max ? max : a < min ? min : a;
+        /**
+         * Marks current value as emitted - further changes are measured from
+         * it.
+         */
+        public void markEmitted() {
+            emittedValue = get();
         }
     }
 }
@@ -0,0 +1,108 @@
+package pl.polidea.utility.sensors;
+
+import pl.polidea.utility.sensors.OrientationCenter.OrientationSnapshot;
+
+/**
+ * Latest orientation published by the thread processing sensor events and
+ * read by any number of threads without locks and without allocation. Writer
+ * makes sequence odd, writes the values and makes it even again; reader
+ * retries when sequence was odd or changed while it read the values. Writers
+ * are serialized with a lock (accuracy is also reset from the thread
+ * registering sensors) - two writers interleaving the increments could leave
+ * the sequence odd forever and readers spinning. The lock is uncontended on
+ * the sensor thread. All the fields are volatile - plain fields could be
+ * reordered around the sequence reads (there are no fences in Java 6), and
+ * volatile reads cost next to nothing compared to a lock.
+ * 
+ */
+final class OrientationSeqLock {
+    private volatile int sequence;
+    private volatile float azimuth;
+    private volatile float pitch;
+    private volatile float roll;
+    private volatile long timestamp;
+    private volatile boolean accurate = true;
+    private volatile boolean published;
+
+    /**
+     * Publishes new orientation.
+     */
+    synchronized void write(final float azimuth, final float pitch, final float roll, final long timestamp) {
+        final int current = sequence;
+        sequence = current + 1;
+        this.azimuth = azimuth;
+        this.pitch = pitch;
+        this.roll = roll;
+        this.timestamp = timestamp;
+        published = true;
+        sequence = current + 2;
+    }
+
+    /**
+     * Publishes accuracy change.
+     */
+    synchronized void writeAccuracy(final boolean accurate) {
+        final int current = sequence;
+        sequence = current + 1;
+        this.accurate = accurate;
+        sequence = current + 2;
+    }
+
+    /**
+     * Reads consistent orientation.
+     * 
+     * @param declination
+     *            declination subtracted from azimuth
+     * @param out
+     *            snapshot to fill
+     * @return false if nothing was published yet
+     */
+    boolean read(final float declination, final OrientationSnapshot out) {
+        while (true) {
+            final int before = sequence;
+            if ((before & 1) == 0) {
+                final float readAzimuth = azimuth;
+                final float readPitch = pitch;
+                final float readRoll = roll;
+                final long readTimestamp = timestamp;
+                final boolean readAccurate = accurate;
+                final boolean readPublished = published;
+                if (sequence == before) {
+                    out.set(readAzimuth - declination, readPitch, readRoll, readTimestamp, readAccurate);
+                    return readPublished;
+                }
+            }
+            // writer was preempted in the middle of write
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Reads consistent angles.
+     * 
+     * @param declination
+     *            declination subtracted from azimuth
+     * @param out
+     *            array receiving azimuth, pitch and roll
+     * @return timestamp of the sample, -1 if nothing was published yet
+     */
+    long read(final float declination, final float[] out) {
+        while (true) {
+            final int before = sequence;
+            if ((before & 1) == 0) {
+                final float readAzimuth = azimuth;
+                final float readPitch = pitch;
+                final float readRoll = roll;
+                final long readTimestamp = timestamp;
+                final boolean readPublished = published;
+                if (sequence == before) {
+                    out[0] = readAzimuth - declination;
+                    out[1] = readPitch;
+                    out[2] = readRoll;
+                    return readPublished ? readTimestamp : -1;
+                }
+            }
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package pl.polidea.utility.sensors;
+
+/**
+ * Mutable unit quaternion describing rotation, with the operations needed to
+ * turn rotation vector sensor readings into orientation angles. Does not use
+ * any Android classes, so it can be tested and benchmarked on plain JVM.
+ * Operations never allocate - results are written to this or to the array
+ * passed.
+ * 
+ */
+public final class Quaternion {
+    private float w = 1;
+    private float x;
+    private float y;
+    private float z;
+
+    public Quaternion() {
+        // identity
+    }
+
+    public Quaternion(final float w, final float x, final float y, final float z) {
+        set(w, x, y, z);
+    }
+
+    public float getW() {
+        return w;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    public Quaternion set(final float w, final float x, final float y, final float z) {
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Quaternion set(final Quaternion other) {
+        return set(other.w, other.x, other.y, other.z);
+    }
+
+    /**
+     * Sets rotation from values of rotation vector sensor: x, y, z and
+     * optionally the scalar part (older devices do not report it, it is
+     * computed then; some report more than four values, the rest is
+     * ignored).
+     * 
+     * @param values
+     *            sensor values
+     * @return this
+     */
+    public Quaternion setFromRotationVector(final float[] values) {
+        x = values[0];
+        y = values[1];
+        z = values[2];
+        if (values.length >= 4) {
+            w = values[3];
+        } else {
+            final float ww = 1 - x * x - y * y - z * z;
+            w = ww > 0 ? (float) Math.sqrt(ww) : 0;
+        }
+        return this;
+    }
+
+    /**
+     * Sets this to product a * b - rotation b followed by a (this may be the
+     * same object as a or b).
+     * 
+     * @param a
+     *            left quaternion
+     * @param b
+     *            right quaternion
+     * @return this
+     */
+    public Quaternion multiply(final Quaternion a, final Quaternion b) {
+        return set(a.w * b.w - a.x * b.x - a.y * b.y - a.z * b.z, //
+                a.w * b.x + a.x * b.w + a.y * b.z - a.z * b.y, //
+                a.w * b.y - a.x * b.z + a.y * b.w + a.z * b.x, //
+                a.w * b.z + a.x * b.y - a.y * b.x + a.z * b.w);
+    }
+
+    public Quaternion conjugate() {
+        return set(w, -x, -y, -z);
+    }
+
+    public Quaternion normalize() {
+        final float norm = (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        if (norm > 0) {
+            set(w / norm, x / norm, y / norm, z / norm);
+        }
+        return this;
+    }
+
+    /**
+     * Writes rotation matrix (3x3, row-major) of the quaternion - the same
+     * which SensorManager.getRotationMatrixFromVector returns.
+     * 
+     * @param matrix
+     *            array of 9 floats
+     */
+    public void getRotationMatrix(final float[] matrix) {
+        final float xx = 2 * x * x;
+        final float yy = 2 * y * y;
+        final float zz = 2 * z * z;
+        final float xy = 2 * x * y;
+        final float xz = 2 * x * z;
+        final float yz = 2 * y * z;
+        final float xw = 2 * x * w;
+        final float yw = 2 * y * w;
+        final float zw = 2 * z * w;
+        matrix[0] = 1 - yy - zz;
+        matrix[1] = xy - zw;
+        matrix[2] = xz + yw;
+        matrix[3] = xy + zw;
+        matrix[4] = 1 - xx - zz;
+        matrix[5] = yz - xw;
+        matrix[6] = xz - yw;
+        matrix[7] = yz + xw;
+        matrix[8] = 1 - xx - yy;
+    }
+
+    /**
+     * Writes azimuth, pitch and roll (radians) of the rotation - the same
+     * which SensorManager.getOrientation returns for its rotation matrix, but
+     * only the five matrix elements needed are computed.
+     * 
+     * @param orientation
+     *            array of 3 floats
+     */
+    public void getOrientation(final float[] orientation) {
+        final float m1 = 2 * (x * y - z * w);
+        final float m4 = 1 - 2 * (x * x + z * z);
+        final float m6 = 2 * (x * z - y * w);
+        final float m7 = 2 * (y * z + x * w);
+        final float m8 = 1 - 2 * (x * x + y * y);
+        orientation[0] = (float) Math.atan2(m1, m4);
+        orientation[1] = (float) Math.asin(-clamp(m7));
+        orientation[2] = (float) Math.atan2(-m6, m8);
+    }
+
+    private static float clamp(final float value) {
+        return value > 1 ? 1 : value < -1 ? -1 : value;
+    }
+
+    @Override
+    public String toString() {
+        return "Quaternion[" + w + ", " + x + ", " + y + ", " + z + "]";
+    }
+}
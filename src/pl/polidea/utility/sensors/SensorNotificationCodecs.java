@@ -0,0 +1,233 @@
+package pl.polidea.utility.sensors;
+
+import java.nio.ByteBuffer;
+
+import pl.polidea.utility.notificationcenter.Notification;
+import pl.polidea.utility.notificationcenter.bridge.NotificationBridge;
+import pl.polidea.utility.notificationcenter.bridge.NotificationCodec;
+import pl.polidea.utility.sensors.LocationCenter.LocationChangedNotification;
+import pl.polidea.utility.sensors.LocationCenter.LocationProviderDisabledNotification;
+import pl.polidea.utility.sensors.LocationCenter.LocationProviderEnabledNotification;
+import pl.polidea.utility.sensors.LocationCenter.LocationTimeoutNotification;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationAccuracyNotification;
+import pl.polidea.utility.sensors.OrientationCenter.OrientationUpdateNotification;
+import android.location.Location;
+import android.location.LocationManager;
+
+/**
+ * Codecs of notifications emitted by {@link OrientationCenter} and
+ * {@link LocationCenter}, so that single process can collect orientation and
+ * location and share them with other processes through
+ * {@link NotificationBridge}. Use {@link #forwardAll(NotificationBridge)} in
+ * the collecting process and {@link #acceptAll(NotificationBridge)} in the
+ * others.
+ * 
+ */
+public final class SensorNotificationCodecs {
+    public static final int ORIENTATION_UPDATE_ID = 1;
+    public static final int ORIENTATION_ACCURACY_ID = 2;
+    public static final int LOCATION_CHANGED_ID = 3;
+    public static final int LOCATION_PROVIDER_ENABLED_ID = 4;
+    public static final int LOCATION_PROVIDER_DISABLED_ID = 5;
+    public static final int LOCATION_TIMEOUT_ID = 6;
+
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_ALTITUDE = 2;
+    private static final int HAS_SPEED = 4;
+    private static final int HAS_BEARING = 8;
+
+    private static final byte PROVIDER_OTHER = 0;
+    private static final byte PROVIDER_GPS = 1;
+    private static final byte PROVIDER_NETWORK = 2;
+
+    private SensorNotificationCodecs() {
+        // static only
+    }
+
+    /**
+     * Three floats: azimuth, pitch and roll.
+     */
+    public static final NotificationCodec<OrientationUpdateNotification> ORIENTATION_UPDATE = new NotificationCodec<OrientationUpdateNotification>() {
+        @Override
+        public void encode(final OrientationUpdateNotification notification, final ByteBuffer out) {
+            out.putFloat(notification.getAzimuth());
+            out.putFloat(notification.getPitch());
+            out.putFloat(notification.getRoll());
+        }
+
+        @Override
+        public OrientationUpdateNotification decode(final ByteBuffer in) {
+            return new OrientationUpdateNotification(in.getFloat(), in.getFloat(), in.getFloat());
+        }
+    };
+
+    /**
+     * Single byte.
+     */
+    public static final NotificationCodec<OrientationAccuracyNotification> ORIENTATION_ACCURACY = new NotificationCodec<OrientationAccuracyNotification>() {
+        @Override
+        public void encode(final OrientationAccuracyNotification notification, final ByteBuffer out) {
+            out.put(notification.isSufficient() ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public OrientationAccuracyNotification decode(final ByteBuffer in) {
+            return new OrientationAccuracyNotification(in.get() != 0);
+        }
+    };
+
+    /**
+     * Flags of optional fields and provider code, time, latitude, longitude
+     * followed by the optional fields present. Names of providers other than
+     * GPS and network follow the flags.
+     */
+    public static final NotificationCodec<LocationChangedNotification> LOCATION_CHANGED = new NotificationCodec<LocationChangedNotification>() {
+        @Override
+        public void encode(final LocationChangedNotification notification, final ByteBuffer out) {
+            final Location location = notification.getLocation();
+            int flags = 0;
+            flags |= location.hasAccuracy() ? HAS_ACCURACY : 0;
+            flags |= location.hasAltitude() ? HAS_ALTITUDE : 0;
+            flags |= location.hasSpeed() ? HAS_SPEED : 0;
+            flags |= location.hasBearing() ? HAS_BEARING : 0;
+            out.put((byte) flags);
+            final String provider = location.getProvider();
+            if (LocationManager.GPS_PROVIDER.equals(provider)) {
+                out.put(PROVIDER_GPS);
+            } else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+                out.put(PROVIDER_NETWORK);
+            } else {
+                out.put(PROVIDER_OTHER);
+                putString(out, provider == null ? "" : provider);
+            }
+            out.putLong(location.getTime());
+            out.putDouble(location.getLatitude());
+            out.putDouble(location.getLongitude());
+            if ((flags & HAS_ACCURACY) != 0) {
+                out.putFloat(location.getAccuracy());
+            }
+            if ((flags & HAS_ALTITUDE) != 0) {
+                out.putDouble(location.getAltitude());
+            }
+            if ((flags & HAS_SPEED) != 0) {
+                out.putFloat(location.getSpeed());
+            }
+            if ((flags & HAS_BEARING) != 0) {
+                out.putFloat(location.getBearing());
+            }
+        }
+
+        @Override
+        public LocationChangedNotification decode(final ByteBuffer in) {
+            final int flags = in.get();
+            final byte providerCode = in.get();
+            final String provider;
+            if (providerCode == PROVIDER_GPS) {
+                provider = LocationManager.GPS_PROVIDER;
+            } else if (providerCode == PROVIDER_NETWORK) {
+                provider = LocationManager.NETWORK_PROVIDER;
+            } else {
+                provider = getString(in);
+            }
+            final Location location = new Location(provider);
+            location.setTime(in.getLong());
+            location.setLatitude(in.getDouble());
+            location.setLongitude(in.getDouble());
+            if ((flags & HAS_ACCURACY) != 0) {
+                location.setAccuracy(in.getFloat());
+            }
+            if ((flags & HAS_ALTITUDE) != 0) {
+                location.setAltitude(in.getDouble());
+            }
+            if ((flags & HAS_SPEED) != 0) {
+                location.setSpeed(in.getFloat());
+            }
+            if ((flags & HAS_BEARING) != 0) {
+                location.setBearing(in.getFloat());
+            }
+            return new LocationChangedNotification(location);
+        }
+    };
+
+    /**
+     * Codec of notification without content.
+     */
+    private static final class EmptyCodec<T extends Notification> implements NotificationCodec<T> {
+        private final T instance;
+
+        EmptyCodec(final T instance) {
+            this.instance = instance;
+        }
+
+        @Override
+        public void encode(final T notification, final ByteBuffer out) {
+            // nothing to write
+        }
+
+        @Override
+        public T decode(final ByteBuffer in) {
+            // notifications without content are immutable, so one instance
+            // serves all
+            return instance;
+        }
+    }
+
+    public static final NotificationCodec<LocationProviderEnabledNotification> LOCATION_PROVIDER_ENABLED = new EmptyCodec<LocationProviderEnabledNotification>(
+            new LocationProviderEnabledNotification());
+    public static final NotificationCodec<LocationProviderDisabledNotification> LOCATION_PROVIDER_DISABLED = new EmptyCodec<LocationProviderDisabledNotification>(
+            new LocationProviderDisabledNotification());
+    public static final NotificationCodec<LocationTimeoutNotification> LOCATION_TIMEOUT = new EmptyCodec<LocationTimeoutNotification>(
+            new LocationTimeoutNotification());
+
+    private static void putString(final ByteBuffer out, final String value) {
+        final int length = Math.min(value.length(), Byte.MAX_VALUE);
+        out.put((byte) length);
+        for (int i = 0; i < length; i++) {
+            out.putChar(value.charAt(i));
+        }
+    }
+
+    private static String getString(final ByteBuffer in) {
+        final int length = in.get();
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Forwards all orientation and location notifications to other processes.
+     * 
+     * @param bridge
+     *            bridge to forward through
+     */
+    public static void forwardAll(final NotificationBridge bridge) {
+        bridge.forward(OrientationUpdateNotification.class, ORIENTATION_UPDATE_ID, ORIENTATION_UPDATE);
+        bridge.forward(OrientationAccuracyNotification.class, ORIENTATION_ACCURACY_ID, ORIENTATION_ACCURACY);
+        bridge.forward(LocationChangedNotification.class, LOCATION_CHANGED_ID, LOCATION_CHANGED);
+        bridge.forward(LocationProviderEnabledNotification.class, LOCATION_PROVIDER_ENABLED_ID,
+                LOCATION_PROVIDER_ENABLED);
+        bridge.forward(LocationProviderDisabledNotification.class, LOCATION_PROVIDER_DISABLED_ID,
+                LOCATION_PROVIDER_DISABLED);
+        bridge.forward(LocationTimeoutNotification.class, LOCATION_TIMEOUT_ID, LOCATION_TIMEOUT);
+    }
+
+    /**
+     * Emits orientation and location notifications received from other
+     * processes.
+     * 
+     * @param bridge
+     *            bridge to receive from
+     */
+    public static void acceptAll(final NotificationBridge bridge) {
+        bridge.accept(OrientationUpdateNotification.class, ORIENTATION_UPDATE_ID, ORIENTATION_UPDATE);
+        bridge.accept(OrientationAccuracyNotification.class, ORIENTATION_ACCURACY_ID, ORIENTATION_ACCURACY);
+        bridge.accept(LocationChangedNotification.class, LOCATION_CHANGED_ID, LOCATION_CHANGED);
+        bridge.accept(LocationProviderEnabledNotification.class, LOCATION_PROVIDER_ENABLED_ID,
+                LOCATION_PROVIDER_ENABLED);
+        bridge.accept(LocationProviderDisabledNotification.class, LOCATION_PROVIDER_DISABLED_ID,
+                LOCATION_PROVIDER_DISABLED);
+        bridge.accept(LocationTimeoutNotification.class, LOCATION_TIMEOUT_ID, LOCATION_TIMEOUT);
+    }
+}
@@ -0,0 +1,56 @@
+package pl.polidea.utility.sensors.estimator;
+
+import pl.polidea.utility.sensors.LocationCenter;
+import android.location.Location;
+
+/**
+ * Picks the best fix without blending them: newer fix wins when the best one
+ * is older than 20 seconds, otherwise more accurate one wins; without
+ * accuracy information GPS fix is preferred. Every fix replacing the best one
+ * is emitted.
+ * 
+ */
+public class BestFixEstimator extends LocationEstimator {
+    private static final long MAX_AGE = 20000;
+
+    private Location bestLocationYet = null;
+    private Location lastLocationGPS = null;
+
+    @Override
+    public boolean push(final int type, final Location location) {
+        if (type == LocationCenter.SOURCETYPE_GPS) {
+            lastLocationGPS = location;
+        }
+        boolean better = false;
+        if (bestLocationYet == null) {
+            better = true;
+        } else if (bestLocationYet.getTime() < location.getTime() - MAX_AGE) {
+            better = true;
+        } else if (bestLocationYet.hasAccuracy() && location.hasAccuracy()) {
+            // decide using accuracy information
+            if (bestLocationYet.getAccuracy() > location.getAccuracy()) {
+                better = true;
+            }
+        } else if (location == lastLocationGPS) {
+            better = true;
+        } else if (bestLocationYet != lastLocationGPS) {
+            better = true;
+        }
+
+        if (better) {
+            bestLocationYet = location;
+        }
+        return better;
+    }
+
+    @Override
+    public Location getEstimate() {
+        return bestLocationYet;
+    }
+
+    @Override
+    public void reset() {
+        bestLocationYet = null;
+        lastLocationGPS = null;
+    }
+}
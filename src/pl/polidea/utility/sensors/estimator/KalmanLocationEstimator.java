@@ -0,0 +1,235 @@
+package pl.polidea.utility.sensors.estimator;
+
+import android.location.Location;
+
+/**
+ * Fuses fixes of all providers with constant velocity Kalman filter, so that
+ * switching between GPS and network fixes does not make location jump - each
+ * fix moves the estimate according to its accuracy. Position and velocity
+ * are estimated in meters on plane tangent to the Earth at reference point
+ * (east and north axes filtered independently), which is moved when the
+ * estimate gets far from it.
+ * <p>
+ * Estimate carries accuracy (radius of 68% confidence, the same meaning as
+ * accuracy of the fixes), speed, bearing and altitude of the latest fix
+ * having one. It is emitted when it moves more than threshold from the
+ * location emitted last time or when its accuracy gets better by more than
+ * the threshold; {@link #getEstimate()} returns current state of the filter
+ * also between the emissions.
+ * 
+ */
+public class KalmanLocationEstimator extends LocationEstimator {
+    /**
+     * Provider of the estimates.
+     */
+    public static final String PROVIDER = "fused";
+
+    private static final float DEFAULT_THRESHOLD = 10f;
+    private static final float DEFAULT_ACCELERATION_NOISE = 0.25f;
+    /**
+     * Accuracy assumed for fixes without it (meters).
+     */
+    private static final float DEFAULT_ACCURACY = 50f;
+    /**
+     * Ratio of 68% radius to standard deviation along single axis.
+     */
+    private static final double RADIUS_TO_SIGMA = 1.515;
+    private static final double INITIAL_VELOCITY_VARIANCE = 100;
+    private static final double EARTH_RADIUS = 6371009;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    private static final double MAX_REFERENCE_DISTANCE = 50000;
+
+    /**
+     * Position and velocity along single axis with their covariance.
+     */
+    private static final class Axis {
+        double position;
+        double velocity;
+        double positionVariance;
+        double covariance;
+        double velocityVariance;
+
+        void init(final double measured, final double variance) {
+            position = measured;
+            velocity = 0;
+            positionVariance = variance;
+            covariance = 0;
+            velocityVariance = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        /**
+         * Moves the state by dt seconds, with white noise acceleration of
+         * spectral density q.
+         */
+        void predict(final double dt, final double q) {
+            position += velocity * dt;
+            final double dt2 = dt * dt;
+            positionVariance += 2 * dt * covariance + dt2 * velocityVariance + q * dt2 * dt / 3;
+            covariance += dt * velocityVariance + q * dt2 / 2;
+            velocityVariance += q * dt;
+        }
+
+        void update(final double measured, final double variance) {
+            final double innovationVariance = positionVariance + variance;
+            final double positionGain = positionVariance / innovationVariance;
+            final double velocityGain = covariance / innovationVariance;
+            final double innovation = measured - position;
+            position += positionGain * innovation;
+            velocity += velocityGain * innovation;
+            velocityVariance -= velocityGain * covariance;
+            covariance -= positionGain * covariance;
+            positionVariance -= positionGain * positionVariance;
+        }
+    }
+
+    private final float threshold;
+    private final double accelerationNoise;
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+
+    private boolean initialized = false;
+    private double referenceLatitude;
+    private double referenceLongitude;
+    private double metersPerDegreeLongitude;
+    private long time;
+    private boolean hasAltitude;
+    private double altitude;
+    private boolean emitted;
+    private double emittedEast;
+    private double emittedNorth;
+    private float emittedAccuracy;
+    // built lazily from current state, null when the state changed
+    private Location estimate = null;
+
+    public KalmanLocationEstimator() {
+        this(DEFAULT_THRESHOLD, DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * Creates the estimator.
+     * 
+     * @param threshold
+     *            distance (meters) the estimate has to move to be emitted
+     * @param accelerationNoise
+     *            how much the velocity may change - spectral density of
+     *            acceleration (m^2/s^3), about 0.25 for walking, several
+     *            for driving
+     */
+    public KalmanLocationEstimator(final float threshold, final float accelerationNoise) {
+        this.threshold = threshold;
+        this.accelerationNoise = accelerationNoise;
+    }
+
+    @Override
+    public boolean push(final int type, final Location location) {
+        final double sigma = (location.hasAccuracy() ? location.getAccuracy() : DEFAULT_ACCURACY) / RADIUS_TO_SIGMA;
+        final double variance = sigma * sigma;
+        if (!initialized) {
+            setReference(location.getLatitude(), location.getLongitude());
+            east.init(0, variance);
+            north.init(0, variance);
+            time = location.getTime();
+            hasAltitude = false;
+            emitted = false;
+            initialized = true;
+        } else {
+            // fixes of different providers may come slightly out of order
+            if (location.getTime() > time) {
+                final double dt = (location.getTime() - time) / 1000.0;
+                east.predict(dt, accelerationNoise);
+                north.predict(dt, accelerationNoise);
+                time = location.getTime();
+            }
+            east.update(wrapLongitude(location.getLongitude() - referenceLongitude) * metersPerDegreeLongitude,
+                    variance);
+            north.update((location.getLatitude() - referenceLatitude) * METERS_PER_DEGREE, variance);
+            if (Math.abs(east.position) > MAX_REFERENCE_DISTANCE || Math.abs(north.position) > MAX_REFERENCE_DISTANCE) {
+                moveReference();
+            }
+        }
+        if (location.hasAltitude()) {
+            altitude = location.getAltitude();
+            hasAltitude = true;
+        }
+        estimate = null;
+        final float accuracy = getAccuracy();
+        if (emitted) {
+            final double movedEast = east.position - emittedEast;
+            final double movedNorth = north.position - emittedNorth;
+            if (movedEast * movedEast + movedNorth * movedNorth <= threshold * threshold
+                    && emittedAccuracy - accuracy <= threshold) {
+                return false;
+            }
+        }
+        emitted = true;
+        emittedEast = east.position;
+        emittedNorth = north.position;
+        emittedAccuracy = accuracy;
+        return true;
+    }
+
+    private float getAccuracy() {
+        return (float) (RADIUS_TO_SIGMA * Math.sqrt((east.positionVariance + north.positionVariance) / 2));
+    }
+
+    private void setReference(final double latitude, final double longitude) {
+        referenceLatitude = latitude;
+        referenceLongitude = longitude;
+        metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    private void moveReference() {
+        final double latitude = referenceLatitude + north.position / METERS_PER_DEGREE;
+        final double longitude = wrapLongitude(referenceLongitude + east.position / metersPerDegreeLongitude);
+        emittedEast -= east.position;
+        emittedNorth -= north.position;
+        east.position = 0;
+        north.position = 0;
+        setReference(latitude, longitude);
+    }
+
+    /**
+     * Brings longitude or difference of longitudes to [-180, 180), so that
+     * fixes on both sides of the antimeridian are close.
+     */
+    private static double wrapLongitude(final double degrees) {
+        if (degrees >= -180 && degrees < 180) {
+            return degrees;
+        }
+        final double wrapped = (degrees + 180) % 360;
+        return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+    }
+
+    private Location createEstimate() {
+        final Location location = new Location(PROVIDER);
+        location.setTime(time);
+        location.setLatitude(referenceLatitude + north.position / METERS_PER_DEGREE);
+        location.setLongitude(wrapLongitude(referenceLongitude + east.position / metersPerDegreeLongitude));
+        location.setAccuracy(getAccuracy());
+        if (hasAltitude) {
+            location.setAltitude(altitude);
+        }
+        final double speed = Math.sqrt(east.velocity * east.velocity + north.velocity * north.velocity);
+        location.setSpeed((float) speed);
+        if (speed * speed > east.velocityVariance + north.velocityVariance) {
+            // bearing of speed within its uncertainty is noise
+            final double bearing = Math.toDegrees(Math.atan2(east.velocity, north.velocity));
+            location.setBearing((float) (bearing < 0 ? bearing + 360 : bearing));
+        }
+        return location;
+    }
+
+    @Override
+    public Location getEstimate() {
+        if (initialized && estimate == null) {
+            estimate = createEstimate();
+        }
+        return estimate;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        estimate = null;
+    }
+}
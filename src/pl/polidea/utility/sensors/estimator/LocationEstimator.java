@@ -0,0 +1,36 @@
+package pl.polidea.utility.sensors.estimator;
+
+import android.location.Location;
+
+/**
+ * Turns fixes of location providers into location emitted by location
+ * center. Called on the thread delivering the fixes.
+ * 
+ */
+public abstract class LocationEstimator {
+
+    /**
+     * Takes next fix into account.
+     * 
+     * @param type
+     *            provider of the fix (LocationCenter.SOURCETYPE_NET or
+     *            SOURCETYPE_GPS)
+     * @param location
+     *            the fix
+     * @return true if the estimate changed enough to be emitted
+     */
+    public abstract boolean push(int type, Location location);
+
+    /**
+     * Returns current estimate. The object returned is not modified by the
+     * estimator later, so it can be passed to listeners.
+     * 
+     * @return estimate, null if there were no fixes yet
+     */
+    public abstract Location getEstimate();
+
+    /**
+     * Forgets all the fixes.
+     */
+    public abstract void reset();
+}
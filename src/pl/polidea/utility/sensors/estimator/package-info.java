@@ -0,0 +1,5 @@
+/**
+ * Estimators turning location fixes of providers into location emitted by
+ * location center.
+ */
+package pl.polidea.utility.sensors.estimator;
@@ -0,0 +1,50 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * Stage of orientation filter chain. Filters single angle (radians, between
+ * -PI and PI) - every axis has its own instance. Filters take care of angle
+ * wrapping around, work on primitives only and never allocate.
+ * 
+ */
+public abstract class AngleFilter {
+
+    /**
+     * Filters next sample.
+     * 
+     * @param angle
+     *            angle measured
+     * @param timestampNanos
+     *            time of the sample in nanoseconds
+     * @return angle filtered
+     */
+    public abstract float filter(float angle, long timestampNanos);
+
+    /**
+     * Forgets the state - next sample is taken as it is.
+     */
+    public abstract void reset();
+
+    /**
+     * Filters samples taken at regular intervals, replacing them with the
+     * values filtered.
+     * 
+     * @param angles
+     *            samples
+     * @param offset
+     *            index of first sample
+     * @param length
+     *            number of samples
+     * @param timestampNanos
+     *            time of first sample
+     * @param periodNanos
+     *            time between samples
+     */
+    public void filter(final float[] angles, final int offset, final int length, final long timestampNanos,
+            final long periodNanos) {
+        long timestamp = timestampNanos;
+        for (int i = offset; i < offset + length; i++) {
+            angles[i] = filter(angles[i], timestamp);
+            timestamp += periodNanos;
+        }
+    }
+}
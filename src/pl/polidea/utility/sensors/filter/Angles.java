@@ -0,0 +1,49 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * Arithmetic on angles in radians, which wrap around at -PI and PI.
+ * 
+ */
+final class Angles {
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private Angles() {
+        // static only
+    }
+
+    /**
+     * Returns shortest signed difference from reference to target.
+     * 
+     * @param target
+     *            target angle
+     * @param reference
+     *            reference angle
+     * @return difference in (-PI, PI)
+     */
+    static float difference(final float target, final float reference) {
+        float unwrapped = target;
+        if (reference - unwrapped >= Math.PI) {
+            unwrapped += TWO_PI;
+        } else if (reference - unwrapped <= -Math.PI) {
+            unwrapped -= TWO_PI;
+        }
+        return unwrapped - reference;
+    }
+
+    /**
+     * Brings angle which went at most one turn out of range back.
+     * 
+     * @param angle
+     *            angle
+     * @return angle in (-PI, PI)
+     */
+    static float wrap(final float angle) {
+        float wrapped = angle;
+        if (wrapped >= Math.PI) {
+            wrapped -= TWO_PI;
+        } else if (wrapped <= -Math.PI) {
+            wrapped += TWO_PI;
+        }
+        return wrapped;
+    }
+}
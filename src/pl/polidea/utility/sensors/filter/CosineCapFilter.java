@@ -0,0 +1,74 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * Moves towards the sample by part of the difference - the part grows with
+ * the difference along cosine curve from 0 to decay at highCap, so small
+ * jitter is damped and big changes are followed. Differences bigger than
+ * highCap are treated as highCap. This is the original filter of orientation
+ * center.
+ * <p>
+ * (1 - cos(PI * u)) / 2 equals sin(PI / 2 * u) squared, which is computed
+ * with odd polynomial (error below 4e-6) instead of double precision cosine.
+ * 
+ */
+public class CosineCapFilter extends AngleFilter {
+    // Taylor coefficients of sin(PI / 2 * u)
+    private static final float S1 = 1.5707963f;
+    private static final float S3 = 0.64596409f;
+    private static final float S5 = 0.079692626f;
+    private static final float S7 = 0.0046817541f;
+    private static final float S9 = 0.00016044118f;
+
+    private final float highCap;
+    private final float decay;
+
+    private float value;
+
+    /**
+     * Creates the filter.
+     * 
+     * @param highCap
+     *            maximum change allowed - this determines how big jumps we
+     *            take into account at all, it is more like high frequency
+     *            filter set
+     * @param decay
+     *            how fast we go to the new value - the lower it is, the
+     *            slower we move.
+     */
+    public CosineCapFilter(final float highCap, final float decay) {
+        this.highCap = highCap;
+        this.decay = decay;
+    }
+
+    @Override
+    public float filter(final float angle, final long timestampNanos) {
+        final float diff = Angles.difference(angle, value);
+        value = Angles.wrap(value + response(diff));
+        return value;
+    }
+
+    @Override
+    public void filter(final float[] angles, final int offset, final int length, final long timestampNanos,
+            final long periodNanos) {
+        // time does not matter, so the loop does not need the call
+        float current = value;
+        for (int i = offset; i < offset + length; i++) {
+            current = Angles.wrap(current + response(Angles.difference(angles[i], current)));
+            angles[i] = current;
+        }
+        value = current;
+    }
+
+    @Override
+    public void reset() {
+        value = 0;
+    }
+
+    private float response(final float diff) {
+        float u = diff / highCap;
+        u = u > 1 ? 1 : u < -1 ? -1 : u;
+        final float u2 = u * u;
+        final float sine = u * (S1 - u2 * (S3 - u2 * (S5 - u2 * (S7 - u2 * S9))));
+        return diff * sine * sine * decay;
+    }
+}
@@ -0,0 +1,49 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * Scalar Kalman filter assuming the angle drifts randomly between samples.
+ * Gain adapts to the ratio of the two noises - with process noise much lower
+ * than measurement noise the output is smooth but slow.
+ * 
+ */
+public class KalmanFilter extends AngleFilter {
+    private final float processNoise;
+    private final float measurementNoise;
+
+    private float value;
+    private float variance;
+    private boolean initialized = false;
+
+    /**
+     * Creates the filter.
+     * 
+     * @param processNoise
+     *            variance of change of the angle between samples (rad^2)
+     * @param measurementNoise
+     *            variance of the measurement (rad^2)
+     */
+    public KalmanFilter(final float processNoise, final float measurementNoise) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    @Override
+    public float filter(final float angle, final long timestampNanos) {
+        if (!initialized) {
+            value = angle;
+            variance = measurementNoise;
+            initialized = true;
+            return value;
+        }
+        final float predicted = variance + processNoise;
+        final float gain = predicted / (predicted + measurementNoise);
+        value = Angles.wrap(value + gain * Angles.difference(angle, value));
+        variance = (1 - gain) * predicted;
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,40 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * Exponential low-pass filter - moves towards every sample by fixed part of
+ * the difference.
+ * 
+ */
+public class LowPassFilter extends AngleFilter {
+    private final float alpha;
+
+    private float value;
+    private boolean initialized = false;
+
+    /**
+     * Creates the filter.
+     * 
+     * @param alpha
+     *            part of the difference taken (0 - 1), the lower it is the
+     *            smoother and slower the output
+     */
+    public LowPassFilter(final float alpha) {
+        this.alpha = alpha;
+    }
+
+    @Override
+    public float filter(final float angle, final long timestampNanos) {
+        if (initialized) {
+            value = Angles.wrap(value + alpha * Angles.difference(angle, value));
+        } else {
+            value = angle;
+            initialized = true;
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
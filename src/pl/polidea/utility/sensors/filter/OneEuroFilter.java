@@ -0,0 +1,68 @@
+package pl.polidea.utility.sensors.filter;
+
+/**
+ * The 1&euro; filter (Casiez, Roussel, Vogel 2012) - low-pass filter whose
+ * cutoff frequency grows with speed of change, so the output is smooth when
+ * the device is held still and lags little when it turns.
+ * 
+ */
+public class OneEuroFilter extends AngleFilter {
+    private static final float DEFAULT_PERIOD = 0.02f;
+
+    private final float minCutoff;
+    private final float beta;
+    private final float derivativeCutoff;
+
+    private float value;
+    private float derivative;
+    private long lastTimestamp;
+    private boolean initialized = false;
+
+    /**
+     * Creates the filter.
+     * 
+     * @param minCutoff
+     *            cutoff frequency (Hz) when still - lower removes more jitter
+     * @param beta
+     *            how much cutoff grows with speed (per rad/s) - higher
+     *            reduces lag
+     * @param derivativeCutoff
+     *            cutoff frequency (Hz) of the speed estimate, typically 1
+     */
+    public OneEuroFilter(final float minCutoff, final float beta, final float derivativeCutoff) {
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+        this.derivativeCutoff = derivativeCutoff;
+    }
+
+    @Override
+    public float filter(final float angle, final long timestampNanos) {
+        if (!initialized) {
+            value = angle;
+            derivative = 0;
+            lastTimestamp = timestampNanos;
+            initialized = true;
+            return value;
+        }
+        float period = (timestampNanos - lastTimestamp) / 1e9f;
+        if (period <= 0) {
+            period = DEFAULT_PERIOD;
+        }
+        lastTimestamp = timestampNanos;
+        final float diff = Angles.difference(angle, value);
+        derivative += smoothing(period, derivativeCutoff) * (diff / period - derivative);
+        final float cutoff = minCutoff + beta * Math.abs(derivative);
+        value = Angles.wrap(value + smoothing(period, cutoff) * diff);
+        return value;
+    }
+
+    private static float smoothing(final float period, final float cutoff) {
+        final float tau = 1 / (2 * (float) Math.PI * cutoff);
+        return 1 / (1 + tau / period);
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Filters of orientation angles, chained by orientation center.
+ */
+package pl.polidea.utility.sensors.filter;
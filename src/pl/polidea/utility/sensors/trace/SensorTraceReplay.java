@@ -0,0 +1,239 @@
+package pl.polidea.utility.sensors.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import pl.polidea.utility.sensors.LocationCenter;
+import pl.polidea.utility.sensors.OrientationCenter;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+/**
+ * Replays trace recorded by {@link SensorTraceWriter}. The file is mapped to
+ * memory, so replaying does not read it through streams and the same trace
+ * can be replayed many times (benchmarks, regression tests). Records are
+ * delivered either as fast as possible or with the timing they were recorded
+ * with.
+ * 
+ */
+public class SensorTraceReplay implements Closeable {
+    private static final String TAG = SensorTraceReplay.class.getSimpleName();
+
+    /**
+     * Receives records of the trace. Values of samples must not be kept after
+     * the call returns.
+     * 
+     */
+    public interface RecordHandler {
+        void sampleRead(int sensorType, float[] values, long timestampNanos);
+
+        void locationRead(int type, Location location);
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Maps trace file.
+     * 
+     * @param path
+     *            trace file
+     * @throws IOException
+     *             when file cannot be mapped or it is not a trace
+     */
+    public SensorTraceReplay(final File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.limit() < TraceFormat.HEADER_SIZE || buffer.getInt(0) != TraceFormat.MAGIC) {
+                throw new IOException("Not a sensor trace: " + path);
+            }
+            if (buffer.getInt(4) != TraceFormat.VERSION) {
+                throw new IOException("Unsupported trace version " + buffer.getInt(4) + ": " + path);
+            }
+        } catch (final IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replays the trace through the centers - samples are processed by
+     * orientation center and locations by location center. The centers
+     * should not be collecting at the same time.
+     * 
+     * @param orientationCenter
+     *            center receiving samples, null to skip them
+     * @param locationCenter
+     *            center receiving locations, null to skip them
+     * @param realTime
+     *            true to keep timing of the recording, false to replay as
+     *            fast as possible
+     * @return number of records replayed
+     * @throws InterruptedException
+     *             when interrupted while waiting in real time replay
+     */
+    public int replay(final OrientationCenter orientationCenter, final LocationCenter locationCenter,
+            final boolean realTime) throws InterruptedException {
+        return replay(new RecordHandler() {
+            @Override
+            public void sampleRead(final int sensorType, final float[] values, final long timestampNanos) {
+                if (orientationCenter != null) {
+                    orientationCenter.processSample(sensorType, values, timestampNanos);
+                }
+            }
+
+            @Override
+            public void locationRead(final int type, final Location location) {
+                if (locationCenter != null) {
+                    locationCenter.processLocation(type, location);
+                }
+            }
+        }, realTime);
+    }
+
+    /**
+     * Replays the trace from the beginning. Trace truncated in the middle of
+     * record (recording process was killed) is replayed up to the last
+     * complete record.
+     * 
+     * @param handler
+     *            handler of the records
+     * @param realTime
+     *            true to keep timing of the recording, false to replay as
+     *            fast as possible
+     * @return number of records replayed
+     * @throws InterruptedException
+     *             when interrupted while waiting in real time replay
+     */
+    public int replay(final RecordHandler handler, final boolean realTime) throws InterruptedException {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(TraceFormat.HEADER_SIZE);
+        final int[][] previousBits = new int[TraceFormat.SENSOR_SLOTS][];
+        final float[][] valuesByLength = new float[256][];
+        final long start = System.nanoTime();
+        long clockNanos = 0;
+        long timestamp = 0;
+        long time = 0;
+        long latitudeBits = 0;
+        long longitudeBits = 0;
+        int records = 0;
+        try {
+            while (in.hasRemaining()) {
+                final byte tag = in.get();
+                if (tag == TraceFormat.TAG_SEGMENT) {
+                    for (int i = 0; i < previousBits.length; i++) {
+                        previousBits[i] = null;
+                    }
+                    timestamp = 0;
+                    time = 0;
+                    latitudeBits = 0;
+                    longitudeBits = 0;
+                    continue;
+                }
+                clockNanos += readVarint(in) * 1000;
+                if (tag == TraceFormat.TAG_SAMPLE) {
+                    final int sensorType = (int) readVarint(in);
+                    final int length = in.get() & 0xff;
+                    timestamp += TraceFormat.unzigzag(readVarint(in));
+                    final int slot = sensorType & TraceFormat.SENSOR_SLOTS - 1;
+                    int[] previous = previousBits[slot];
+                    if (previous == null || previous.length != length) {
+                        previous = new int[length];
+                        previousBits[slot] = previous;
+                    }
+                    float[] values = valuesByLength[length];
+                    if (values == null) {
+                        values = new float[length];
+                        valuesByLength[length] = values;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        previous[i] += (int) TraceFormat.unzigzag(readVarint(in));
+                        values[i] = Float.intBitsToFloat(previous[i]);
+                    }
+                    waitFor(realTime, start, clockNanos);
+                    handler.sampleRead(sensorType, values, timestamp);
+                } else if (tag == TraceFormat.TAG_LOCATION) {
+                    final int type = in.get();
+                    final int flags = in.get();
+                    final Location location = new Location(readProvider(in));
+                    time += TraceFormat.unzigzag(readVarint(in));
+                    latitudeBits += TraceFormat.unzigzag(readVarint(in));
+                    longitudeBits += TraceFormat.unzigzag(readVarint(in));
+                    location.setTime(time);
+                    location.setLatitude(Double.longBitsToDouble(latitudeBits));
+                    location.setLongitude(Double.longBitsToDouble(longitudeBits));
+                    if ((flags & TraceFormat.HAS_ACCURACY) != 0) {
+                        location.setAccuracy(in.getFloat());
+                    }
+                    if ((flags & TraceFormat.HAS_ALTITUDE) != 0) {
+                        location.setAltitude(in.getDouble());
+                    }
+                    if ((flags & TraceFormat.HAS_SPEED) != 0) {
+                        location.setSpeed(in.getFloat());
+                    }
+                    if ((flags & TraceFormat.HAS_BEARING) != 0) {
+                        location.setBearing(in.getFloat());
+                    }
+                    waitFor(realTime, start, clockNanos);
+                    handler.locationRead(type, location);
+                } else {
+                    Log.w(TAG, "Unknown record " + tag + " at " + (in.position() - 1));
+                    break;
+                }
+                records++;
+            }
+        } catch (final BufferUnderflowException e) {
+            Log.w(TAG, "Trace truncated after " + records + " records");
+        }
+        return records;
+    }
+
+    private static void waitFor(final boolean realTime, final long start, final long clockNanos)
+            throws InterruptedException {
+        if (realTime) {
+            final long delay = start + clockNanos - System.nanoTime();
+            if (delay > 0) {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            }
+        }
+    }
+
+    private static String readProvider(final ByteBuffer in) {
+        final byte code = in.get();
+        if (code == TraceFormat.PROVIDER_GPS) {
+            return LocationManager.GPS_PROVIDER;
+        } else if (code == TraceFormat.PROVIDER_NETWORK) {
+            return LocationManager.NETWORK_PROVIDER;
+        }
+        final char[] chars = new char[(int) readVarint(in)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) readVarint(in);
+        }
+        return new String(chars);
+    }
+
+    private static long readVarint(final ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
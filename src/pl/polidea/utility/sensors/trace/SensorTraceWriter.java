@@ -0,0 +1,197 @@
+package pl.polidea.utility.sensors.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import pl.polidea.utility.sensors.LocationCenter.FixListener;
+import pl.polidea.utility.sensors.OrientationCenter.SampleListener;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+/**
+ * Records raw sensor samples and location fixes into append-only trace file
+ * (see {@link TraceFormat} for layout). Set it as sample listener of
+ * orientation center and fix listener of location center:
+ * 
+ * <pre>
+ * writer = new SensorTraceWriter(file);
+ * orientationCenter.setSampleListener(writer);
+ * locationCenter.setFixListener(writer);
+ * </pre>
+ * 
+ * Records are buffered, so they reach the file when the buffer fills and on
+ * {@link #flush()} and {@link #close()}. Samples and fixes may come from
+ * different threads. When writing fails, recording stops and the error is
+ * logged - it never disturbs the centers.
+ * 
+ */
+public class SensorTraceWriter implements SampleListener, FixListener, Closeable {
+    private static final String TAG = SensorTraceWriter.class.getSimpleName();
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final OutputStream out;
+    private final int[][] previousBits = new int[TraceFormat.SENSOR_SLOTS][];
+    private long previousClockNanos;
+    private long previousTimestamp;
+    private long previousTime;
+    private long previousLatitudeBits;
+    private long previousLongitudeBits;
+    private boolean failed = false;
+
+    /**
+     * Opens trace file, appending to it if it exists.
+     * 
+     * @param file
+     *            trace file
+     * @throws IOException
+     *             when file cannot be written
+     */
+    public SensorTraceWriter(final File file) throws IOException {
+        final boolean empty = file.length() == 0;
+        out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+        if (empty) {
+            writeInt(TraceFormat.MAGIC);
+            writeInt(TraceFormat.VERSION);
+        }
+        out.write(TraceFormat.TAG_SEGMENT);
+        previousClockNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void sampleReceived(final int sensorType, final float[] values, final long timestampNanos) {
+        if (failed) {
+            return;
+        }
+        try {
+            out.write(TraceFormat.TAG_SAMPLE);
+            writeClock();
+            writeVarint(sensorType);
+            out.write(values.length);
+            writeVarint(TraceFormat.zigzag(timestampNanos - previousTimestamp));
+            previousTimestamp = timestampNanos;
+            final int slot = sensorType & TraceFormat.SENSOR_SLOTS - 1;
+            int[] previous = previousBits[slot];
+            if (previous == null || previous.length != values.length) {
+                previous = new int[values.length];
+                previousBits[slot] = previous;
+            }
+            for (int i = 0; i < values.length; i++) {
+                final int bits = Float.floatToRawIntBits(values[i]);
+                writeVarint(TraceFormat.zigzag(bits - previous[i]));
+                previous[i] = bits;
+            }
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void fixReceived(final int type, final Location location) {
+        if (failed) {
+            return;
+        }
+        try {
+            out.write(TraceFormat.TAG_LOCATION);
+            writeClock();
+            out.write(type);
+            int flags = 0;
+            flags |= location.hasAccuracy() ? TraceFormat.HAS_ACCURACY : 0;
+            flags |= location.hasAltitude() ? TraceFormat.HAS_ALTITUDE : 0;
+            flags |= location.hasSpeed() ? TraceFormat.HAS_SPEED : 0;
+            flags |= location.hasBearing() ? TraceFormat.HAS_BEARING : 0;
+            out.write(flags);
+            writeProvider(location.getProvider());
+            writeVarint(TraceFormat.zigzag(location.getTime() - previousTime));
+            previousTime = location.getTime();
+            final long latitudeBits = Double.doubleToRawLongBits(location.getLatitude());
+            writeVarint(TraceFormat.zigzag(latitudeBits - previousLatitudeBits));
+            previousLatitudeBits = latitudeBits;
+            final long longitudeBits = Double.doubleToRawLongBits(location.getLongitude());
+            writeVarint(TraceFormat.zigzag(longitudeBits - previousLongitudeBits));
+            previousLongitudeBits = longitudeBits;
+            if ((flags & TraceFormat.HAS_ACCURACY) != 0) {
+                writeInt(Float.floatToRawIntBits(location.getAccuracy()));
+            }
+            if ((flags & TraceFormat.HAS_ALTITUDE) != 0) {
+                writeLong(Double.doubleToRawLongBits(location.getAltitude()));
+            }
+            if ((flags & TraceFormat.HAS_SPEED) != 0) {
+                writeInt(Float.floatToRawIntBits(location.getSpeed()));
+            }
+            if ((flags & TraceFormat.HAS_BEARING) != 0) {
+                writeInt(Float.floatToRawIntBits(location.getBearing()));
+            }
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes records buffered so far to the file.
+     * 
+     * @throws IOException
+     *             when writing fails
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        failed = true;
+        out.close();
+    }
+
+    private void fail(final IOException e) {
+        Log.w(TAG, "Recording stopped", e);
+        failed = true;
+    }
+
+    private void writeClock() throws IOException {
+        final long now = System.nanoTime();
+        writeVarint((now - previousClockNanos) / 1000);
+        // keep the remainder, so that rounding does not accumulate
+        previousClockNanos = now - (now - previousClockNanos) % 1000;
+    }
+
+    private void writeProvider(final String provider) throws IOException {
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            out.write(TraceFormat.PROVIDER_GPS);
+        } else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+            out.write(TraceFormat.PROVIDER_NETWORK);
+        } else {
+            out.write(TraceFormat.PROVIDER_OTHER);
+            final String name = provider == null ? "" : provider;
+            writeVarint(name.length());
+            for (int i = 0; i < name.length(); i++) {
+                writeVarint(name.charAt(i));
+            }
+        }
+    }
+
+    private void writeVarint(final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            out.write((int) (remaining & 0x7f | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private void writeInt(final int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void writeLong(final long value) throws IOException {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+}
@@ -0,0 +1,60 @@
+package pl.polidea.utility.sensors.trace;
+
+/**
+ * Layout of sensor trace, shared by {@link SensorTraceWriter} and
+ * {@link SensorTraceReplay}.
+ * <p>
+ * File starts with magic and version (ints) followed by records, each
+ * starting with tag byte. Every writer opening the file starts with segment
+ * record, which resets the delta state - so sessions can be appended to the
+ * same file. Sample and location records follow with clock delta (varint,
+ * microseconds since previous record of the segment) and their content:
+ * <ul>
+ * <li>sample: sensor type (varint), number of values (byte), timestamp delta
+ * (zigzag varint, nanoseconds) and values - differences of float bits from
+ * previous sample of the same sensor (zigzag varint), which are small for
+ * slowly changing values, and lossless;</li>
+ * <li>location: source type (byte), flags of optional fields (byte),
+ * provider code (byte, name of other providers follows), time delta (zigzag
+ * varint, milliseconds), latitude and longitude as differences of double
+ * bits (zigzag varint) followed by optional accuracy, altitude, speed and
+ * bearing.</li>
+ * </ul>
+ * 
+ */
+final class TraceFormat {
+    static final int MAGIC = 0x534e5452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    static final byte TAG_SEGMENT = 0;
+    static final byte TAG_SAMPLE = 1;
+    static final byte TAG_LOCATION = 2;
+
+    static final int HAS_ACCURACY = 1;
+    static final int HAS_ALTITUDE = 2;
+    static final int HAS_SPEED = 4;
+    static final int HAS_BEARING = 8;
+
+    static final byte PROVIDER_OTHER = 0;
+    static final byte PROVIDER_GPS = 1;
+    static final byte PROVIDER_NETWORK = 2;
+
+    /**
+     * Number of sensor slots keeping previous values - sensor types are
+     * folded into them, both sides fold the same way.
+     */
+    static final int SENSOR_SLOTS = 64;
+
+    private TraceFormat() {
+        // constants only
+    }
+
+    static long zigzag(final long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    static long unzigzag(final long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Recording of raw sensor samples and location fixes into binary trace and
+ * its replay through orientation and location centers.
+ */
+package pl.polidea.utility.sensors.trace;